@@ -74,7 +74,6 @@ public class MainActivity extends AppCompatActivity {
      */
     private void sendString(String string) {
         if (keyboardHelper != null)
-            for (char c : string.toCharArray())
-                keyboardHelper.sendChar(c);
+            keyboardHelper.sendCompiled(keyboardHelper.compile(string));
     }
 }
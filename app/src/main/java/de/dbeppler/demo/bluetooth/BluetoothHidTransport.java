@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.bluetooth;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothHidDevice;
+import android.bluetooth.BluetoothProfile;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Transport that sends the reports to a HID Host that is connected over Bluetooth.
+ */
+final class BluetoothHidTransport implements HidTransport {
+
+    private final BluetoothHidDevice inputHost;
+    private final BluetoothDevice device;
+
+    /**
+     * @param inputHost Profile proxy that the HID Device's SDP record is registered with.
+     * @param device    Connected HID Host device.
+     */
+    BluetoothHidTransport(BluetoothHidDevice inputHost, BluetoothDevice device) {
+        this.inputHost = checkNotNull(inputHost);
+        this.device = checkNotNull(device);
+    }
+
+    /**
+     * Check if this transport talks to the device over the profile proxy.
+     */
+    boolean isFor(BluetoothHidDevice inputHost, BluetoothDevice device) {
+        return this.inputHost == inputHost && this.device.equals(device);
+    }
+
+    @Override
+    public boolean sendReport(int id, byte[] data) {
+        return inputHost.sendReport(device, id, data);
+    }
+
+    @Override
+    public boolean replyReport(byte type, byte id, byte[] data) {
+        return inputHost.replyReport(device, type, id, data);
+    }
+
+    @Override
+    public boolean reportError(byte error) {
+        return inputHost.reportError(device, error);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return inputHost.getConnectionState(device) == BluetoothProfile.STATE_CONNECTED;
+    }
+}
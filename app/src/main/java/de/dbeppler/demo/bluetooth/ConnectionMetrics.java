@@ -0,0 +1,358 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.bluetooth;
+
+import android.bluetooth.BluetoothProfile;
+
+import de.dbeppler.demo.metrics.LatencyHistogram;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Timings and counts of getting connected to a HID Host: how long it takes until the profile
+ * proxy is available, the SDP record is registered and a requested connection is established, how
+ * often connections are made, fail or come back, and how long devices spend connecting and
+ * disconnecting. See {@link HidDataSender#getConnectionMetrics()}.
+ *
+ * <p>Events are recorded by the HID event loop and the main thread; snapshots can be taken from
+ * any thread.
+ */
+public final class ConnectionMetrics {
+
+    /** Marks a phase that isn't running. */
+    private static final long IDLE = Long.MIN_VALUE;
+
+    private final LatencyHistogram serviceConnect = new LatencyHistogram();
+    private final LatencyHistogram appRegister = new LatencyHistogram();
+    private final LatencyHistogram connect = new LatencyHistogram();
+
+    @GuardedBy("this")
+    private long serviceRequestedAt = IDLE;
+    @GuardedBy("this")
+    private long appRequestedAt = IDLE;
+    @GuardedBy("this")
+    private long connectRequestedAt = IDLE;
+    @GuardedBy("this")
+    @Nullable
+    private String connectTarget;
+
+    @GuardedBy("this")
+    private long connectAttempts;
+    @GuardedBy("this")
+    private long connections;
+    @GuardedBy("this")
+    private long reconnects;
+    @GuardedBy("this")
+    private long failedConnects;
+    @GuardedBy("this")
+    private long disconnects;
+
+    @GuardedBy("this")
+    private long connectingNanos;
+    @GuardedBy("this")
+    private long disconnectingNanos;
+
+    /** Current state of every device that isn't disconnected, and since when it is in it. */
+    @GuardedBy("this")
+    private final Map<String, long[]> deviceStates = new HashMap<>();
+    /** Devices that were connected since the last reset. */
+    @GuardedBy("this")
+    private final Set<String> connectedBefore = new HashSet<>();
+
+    /**
+     * The profile proxy was requested.
+     */
+    synchronized void onServiceRequested() {
+        serviceRequestedAt = System.nanoTime();
+    }
+
+    /**
+     * The profile proxy is available.
+     */
+    synchronized void onServiceConnected() {
+        serviceRequestedAt = record(serviceConnect, serviceRequestedAt);
+    }
+
+    /**
+     * The SDP record is being registered.
+     */
+    synchronized void onAppRegisterRequested() {
+        appRequestedAt = System.nanoTime();
+    }
+
+    /**
+     * The SDP record was registered.
+     */
+    synchronized void onAppRegistered() {
+        appRequestedAt = record(appRegister, appRequestedAt);
+    }
+
+    /**
+     * A connection to a device was requested.
+     *
+     * @param address Address of the device.
+     */
+    synchronized void onConnectRequested(String address) {
+        connectTarget = checkNotNull(address);
+        connectRequestedAt = System.nanoTime();
+        connectAttempts++;
+    }
+
+    /**
+     * A requested connection won't be established by a connection request, e.g. because the
+     * device is already connected or the request couldn't be made. It doesn't count as an attempt.
+     *
+     * @param address Address of the device.
+     */
+    synchronized void onConnectCancelled(String address) {
+        if (address.equals(connectTarget) && connectRequestedAt != IDLE) {
+            connectAttempts--;
+            connectRequestedAt = IDLE;
+            connectTarget = null;
+        }
+    }
+
+    /**
+     * The connection state of a device changed.
+     *
+     * @param address Address of the device.
+     * @param state   New connection state, see {@link BluetoothProfile#EXTRA_STATE}.
+     */
+    synchronized void onConnectionStateChanged(String address, int state) {
+        long now = System.nanoTime();
+        @Nullable long[] previous = deviceStates.remove(address);
+        if (previous != null) {
+            addStateTime((int) previous[0], now - previous[1]);
+        }
+        if (state != BluetoothProfile.STATE_DISCONNECTED) {
+            deviceStates.put(address, new long[]{state, now});
+        }
+
+        if (previous != null && previous[0] == BluetoothProfile.STATE_CONNECTED
+                && state != BluetoothProfile.STATE_CONNECTED) {
+            disconnects++;
+        }
+
+        boolean target = address.equals(connectTarget);
+        if (state == BluetoothProfile.STATE_CONNECTED) {
+            connections++;
+            if (!connectedBefore.add(address)) {
+                reconnects++;
+            }
+            if (target) {
+                connectRequestedAt = record(connect, connectRequestedAt);
+                connectTarget = null;
+            }
+        } else if (state == BluetoothProfile.STATE_DISCONNECTED) {
+            if (target && connectRequestedAt != IDLE) {
+                // The requested device didn't make it to the connected state.
+                failedConnects++;
+                connectRequestedAt = IDLE;
+                connectTarget = null;
+            }
+        }
+    }
+
+    /**
+     * @return Current values.
+     */
+    synchronized Snapshot snapshot() {
+        long now = System.nanoTime();
+        long connecting = connectingNanos;
+        long disconnecting = disconnectingNanos;
+        // Include the time of devices that are still connecting or disconnecting.
+        for (long[] entry : deviceStates.values()) {
+            if (entry[0] == BluetoothProfile.STATE_CONNECTING) {
+                connecting += now - entry[1];
+            } else if (entry[0] == BluetoothProfile.STATE_DISCONNECTING) {
+                disconnecting += now - entry[1];
+            }
+        }
+        return new Snapshot(serviceConnect.snapshot(), appRegister.snapshot(), connect.snapshot(),
+                connectAttempts, connections, reconnects, failedConnects, disconnects,
+                connecting, disconnecting);
+    }
+
+    /**
+     * Start counting from zero. Phases that are running and the current device states are kept,
+     * but only their time from now on counts.
+     */
+    synchronized void reset() {
+        serviceConnect.snapshotAndReset();
+        appRegister.snapshotAndReset();
+        connect.snapshotAndReset();
+        connectAttempts = 0;
+        connections = 0;
+        reconnects = 0;
+        failedConnects = 0;
+        disconnects = 0;
+        connectingNanos = 0;
+        disconnectingNanos = 0;
+        long now = System.nanoTime();
+        for (long[] entry : deviceStates.values()) {
+            entry[1] = now;
+        }
+        connectedBefore.clear();
+    }
+
+    @GuardedBy("this")
+    private void addStateTime(int state, long nanos) {
+        if (state == BluetoothProfile.STATE_CONNECTING) {
+            connectingNanos += nanos;
+        } else if (state == BluetoothProfile.STATE_DISCONNECTING) {
+            disconnectingNanos += nanos;
+        }
+    }
+
+    /**
+     * Record the time since the start of a phase, if it is running.
+     *
+     * @return {@link #IDLE}, to end the phase.
+     */
+    private static long record(LatencyHistogram histogram, long startedAt) {
+        if (startedAt != IDLE) {
+            histogram.record(System.nanoTime() - startedAt);
+        }
+        return IDLE;
+    }
+
+    /**
+     * Connection metrics at one point in time. All times are in nanoseconds.
+     */
+    public static final class Snapshot {
+
+        private final LatencyHistogram.Snapshot serviceConnect;
+        private final LatencyHistogram.Snapshot appRegister;
+        private final LatencyHistogram.Snapshot connect;
+        private final long connectAttempts;
+        private final long connections;
+        private final long reconnects;
+        private final long failedConnects;
+        private final long disconnects;
+        private final long connectingNanos;
+        private final long disconnectingNanos;
+
+        Snapshot(LatencyHistogram.Snapshot serviceConnect, LatencyHistogram.Snapshot appRegister,
+                LatencyHistogram.Snapshot connect, long connectAttempts, long connections,
+                long reconnects, long failedConnects, long disconnects, long connectingNanos,
+                long disconnectingNanos) {
+            this.serviceConnect = serviceConnect;
+            this.appRegister = appRegister;
+            this.connect = connect;
+            this.connectAttempts = connectAttempts;
+            this.connections = connections;
+            this.reconnects = reconnects;
+            this.failedConnects = failedConnects;
+            this.disconnects = disconnects;
+            this.connectingNanos = connectingNanos;
+            this.disconnectingNanos = disconnectingNanos;
+        }
+
+        /**
+         * @return Time from {@link HidDataSender#register} until the profile proxy was available.
+         */
+        public LatencyHistogram.Snapshot getServiceConnectLatency() {
+            return serviceConnect;
+        }
+
+        /**
+         * @return Time from registering the SDP record until the app was registered.
+         */
+        public LatencyHistogram.Snapshot getAppRegisterLatency() {
+            return appRegister;
+        }
+
+        /**
+         * @return Time from {@link HidDataSender#requestConnect} until the device was connected.
+         */
+        public LatencyHistogram.Snapshot getConnectLatency() {
+            return connect;
+        }
+
+        /**
+         * @return Number of connections that were requested.
+         */
+        public long getConnectAttempts() {
+            return connectAttempts;
+        }
+
+        /**
+         * @return Number of connections that were established, requested or incoming.
+         */
+        public long getConnections() {
+            return connections;
+        }
+
+        /**
+         * @return Number of connections to devices that were connected before.
+         */
+        public long getReconnects() {
+            return reconnects;
+        }
+
+        /**
+         * @return Number of requested connections that ended disconnected.
+         */
+        public long getFailedConnects() {
+            return failedConnects;
+        }
+
+        /**
+         * @return Number of established connections that ended.
+         */
+        public long getDisconnects() {
+            return disconnects;
+        }
+
+        /**
+         * @return Time that devices spent in {@link BluetoothProfile#STATE_CONNECTING}.
+         */
+        public long getConnectingNanos() {
+            return connectingNanos;
+        }
+
+        /**
+         * @return Time that devices spent in {@link BluetoothProfile#STATE_DISCONNECTING}.
+         */
+        public long getDisconnectingNanos() {
+            return disconnectingNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "ConnectionMetrics{serviceConnect=" + serviceConnect
+                    + ", appRegister=" + appRegister
+                    + ", connect=" + connect
+                    + ", connectAttempts=" + connectAttempts
+                    + ", connections=" + connections
+                    + ", reconnects=" + reconnects
+                    + ", failedConnects=" + failedConnects
+                    + ", disconnects=" + disconnects
+                    + ", connectingNanos=" + connectingNanos
+                    + ", disconnectingNanos=" + disconnectingNanos
+                    + "}";
+        }
+    }
+}
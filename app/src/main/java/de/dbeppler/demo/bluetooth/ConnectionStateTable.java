@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.bluetooth;
+
+import android.bluetooth.BluetoothProfile;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Local copy of the connection states of the HID Host devices, keyed by device address, so
+ * connection decisions don't need binder calls. It is kept up to date from the connection state
+ * callbacks and only reconciled against the service when the profile proxy connects. Devices that
+ * are disconnected are not stored.
+ *
+ * <p>Updated by the HID event loop, and safe to read from any thread.
+ *
+ * @param <D> Type of the devices, a {@link android.bluetooth.BluetoothDevice} outside of tests.
+ */
+final class ConnectionStateTable<D> {
+
+    private static final class Entry<D> {
+        final D device;
+        int state;
+
+        Entry(D device, int state) {
+            this.device = device;
+            this.state = state;
+        }
+    }
+
+    private final Function<D, String> addressOf;
+
+    @GuardedBy("this")
+    private final Map<String, Entry<D>> entries = new LinkedHashMap<>();
+
+    /**
+     * @param addressOf Returns the address of a device.
+     */
+    ConnectionStateTable(Function<D, String> addressOf) {
+        this.addressOf = checkNotNull(addressOf);
+    }
+
+    /**
+     * Record the new connection state of the device.
+     *
+     * @param device Remote Bluetooth device.
+     * @param state  New connection state, see {@link BluetoothProfile#EXTRA_STATE}.
+     */
+    synchronized void update(D device, int state) {
+        String address = addressOf.apply(checkNotNull(device));
+        if (state == BluetoothProfile.STATE_DISCONNECTED) {
+            entries.remove(address);
+            return;
+        }
+        Entry<D> entry = entries.get(address);
+        if (entry == null) {
+            entries.put(address, new Entry<>(device, state));
+        } else {
+            entry.state = state;
+        }
+    }
+
+    /**
+     * Replace all states with the ones of another table, e.g. one that was filled from the
+     * service. Readers see either the old or the new states, never a table in between.
+     *
+     * @param other Table to copy the states from, it isn't changed.
+     */
+    void replaceWith(ConnectionStateTable<D> other) {
+        List<Entry<D>> copied = new ArrayList<>();
+        synchronized (other) {
+            for (Entry<D> entry : other.entries.values()) {
+                copied.add(new Entry<>(entry.device, entry.state));
+            }
+        }
+        synchronized (this) {
+            entries.clear();
+            for (Entry<D> entry : copied) {
+                entries.put(addressOf.apply(entry.device), entry);
+            }
+        }
+    }
+
+    /**
+     * Forget all devices, e.g. when the service is gone.
+     */
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @param device Remote Bluetooth device.
+     * @return Last known connection state of the device.
+     */
+    synchronized int getState(D device) {
+        Entry<D> entry = entries.get(addressOf.apply(checkNotNull(device)));
+        return entry != null ? entry.state : BluetoothProfile.STATE_DISCONNECTED;
+    }
+
+    /**
+     * @param states Connection states we are interested in.
+     * @return Devices that are in one of the states, in the order they were first seen.
+     */
+    synchronized List<D> getDevicesMatchingStates(int[] states) {
+        List<D> devices = new ArrayList<>();
+        for (Entry<D> entry : entries.values()) {
+            for (int state : states) {
+                if (entry.state == state) {
+                    devices.add(entry.device);
+                    break;
+                }
+            }
+        }
+        return devices;
+    }
+}
@@ -26,6 +26,9 @@ import android.bluetooth.BluetoothHidDeviceAppSdpSettings;
 class Constants {
 
     static final byte ID_KEYBOARD = 1;
+    static final byte ID_MOUSE = 2;
+    static final byte ID_CONSUMER = 3;
+    static final byte ID_KEYBOARD_BITMAP = 4;
 
     private static final byte[] HIDD_REPORT_DESC = {
             // Keyboard
@@ -53,15 +56,79 @@ class Constants {
             (byte) 0x29, (byte) 0x65, //       Usage Maximum (101)
             (byte) 0x81, (byte) 0x00, //       Input (Data, Array)              ; Key array (6 keys)
             (byte) 0xC0,              // End Collection
+
+            // Mouse
+            (byte) 0x05, (byte) 0x01, // Usage Page (Generic Desktop)
+            (byte) 0x09, (byte) 0x02, // Usage (Mouse)
+            (byte) 0xA1, (byte) 0x01, // Collection (Application)
+            (byte) 0x85, ID_MOUSE,    //    Report ID
+            (byte) 0x09, (byte) 0x01, //    Usage (Pointer)
+            (byte) 0xA1, (byte) 0x00, //    Collection (Physical)
+            (byte) 0x05, (byte) 0x09, //       Usage Page (Buttons)
+            (byte) 0x19, (byte) 0x01, //       Usage minimum (1)
+            (byte) 0x29, (byte) 0x03, //       Usage maximum (3)
+            (byte) 0x15, (byte) 0x00, //       Logical minimum (0)
+            (byte) 0x25, (byte) 0x01, //       Logical maximum (1)
+            (byte) 0x75, (byte) 0x01, //       Report size (1)
+            (byte) 0x95, (byte) 0x03, //       Report count (3)
+            (byte) 0x81, (byte) 0x02, //       Input (Data, Variable, Absolute) ; Button bits
+            (byte) 0x75, (byte) 0x05, //       Report size (5)
+            (byte) 0x95, (byte) 0x01, //       Report count (1)
+            (byte) 0x81, (byte) 0x01, //       Input (Constant)                 ; Padding bits
+            (byte) 0x05, (byte) 0x01, //       Usage Page (Generic Desktop)
+            (byte) 0x09, (byte) 0x30, //       Usage (X)
+            (byte) 0x09, (byte) 0x31, //       Usage (Y)
+            (byte) 0x09, (byte) 0x38, //       Usage (Wheel)
+            (byte) 0x15, (byte) 0x81, //       Logical minimum (-127)
+            (byte) 0x25, (byte) 0x7F, //       Logical maximum (127)
+            (byte) 0x75, (byte) 0x08, //       Report size (8)
+            (byte) 0x95, (byte) 0x03, //       Report count (3)
+            (byte) 0x81, (byte) 0x06, //       Input (Data, Variable, Relative) ; X, Y, Wheel
+            (byte) 0xC0,              //    End Collection
+            (byte) 0xC0,              // End Collection
+
+            // Consumer Control
+            (byte) 0x05, (byte) 0x0C, // Usage Page (Consumer)
+            (byte) 0x09, (byte) 0x01, // Usage (Consumer Control)
+            (byte) 0xA1, (byte) 0x01, // Collection (Application)
+            (byte) 0x85, ID_CONSUMER, //    Report ID
+            (byte) 0x15, (byte) 0x00, //    Logical minimum (0)
+            (byte) 0x26, (byte) 0xFF, (byte) 0x03, // Logical maximum (1023)
+            (byte) 0x19, (byte) 0x00, //    Usage minimum (0)
+            (byte) 0x2A, (byte) 0xFF, (byte) 0x03, // Usage maximum (1023)
+            (byte) 0x75, (byte) 0x10, //    Report size (16)
+            (byte) 0x95, (byte) 0x01, //    Report count (1)
+            (byte) 0x81, (byte) 0x00, //    Input (Data, Array)                 ; Usage
+            (byte) 0xC0,              // End Collection
+
+            // Keyboard with N-key rollover
+            (byte) 0x05, (byte) 0x01, // Usage page (Generic Desktop)
+            (byte) 0x09, (byte) 0x06, // Usage (Keyboard)
+            (byte) 0xA1, (byte) 0x01, // Collection (Application)
+            (byte) 0x85, ID_KEYBOARD_BITMAP, // Report ID
+            (byte) 0x05, (byte) 0x07, //    Usage page (Key Codes)
+            (byte) 0x19, (byte) 0xE0, //    Usage minimum (224)
+            (byte) 0x29, (byte) 0xE7, //    Usage maximum (231)
+            (byte) 0x15, (byte) 0x00, //    Logical minimum (0)
+            (byte) 0x25, (byte) 0x01, //    Logical maximum (1)
+            (byte) 0x75, (byte) 0x01, //    Report size (1)
+            (byte) 0x95, (byte) 0x08, //    Report count (8)
+            (byte) 0x81, (byte) 0x02, //    Input (Data, Variable, Absolute)    ; Modifier byte
+            (byte) 0x19, (byte) 0x00, //    Usage minimum (0)
+            (byte) 0x29, (byte) 0x67, //    Usage maximum (103)
+            (byte) 0x95, (byte) 0x68, //    Report count (104)
+            (byte) 0x81, (byte) 0x02, //    Input (Data, Variable, Absolute)    ; Key bitmap
+            (byte) 0xC0,              // End Collection
     };
 
     private static final String SDP_NAME = "Wear Input";
     private static final String SDP_DESCRIPTION = "Wear OS HID Device";
     private static final String SDP_PROVIDER = "Google Inc.";
-    private static final int QOS_TOKEN_RATE = 800; // 9 bytes * 1000000 us / 11250 us
-    private static final int QOS_TOKEN_BUCKET_SIZE = 9;
     private static final int QOS_PEAK_BANDWIDTH = 0;
     private static final int QOS_LATENCY = 11250;
+    // The largest report, the N-key rollover keyboard report with its ID, fits into the bucket.
+    static final int QOS_TOKEN_BUCKET_SIZE = 1 + KeyboardBitmapReport.REPORT_LENGTH; // 15 bytes
+    static final int QOS_TOKEN_RATE = QOS_TOKEN_BUCKET_SIZE * 1000000 / QOS_LATENCY; // 1333 B/s
 
     static final BluetoothHidDeviceAppSdpSettings SDP_RECORD =
             new BluetoothHidDeviceAppSdpSettings(
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.bluetooth;
+
+/**
+ * Helper class to store the consumer control state and retrieve the binary report.
+ */
+public class ConsumerReport extends InputReport {
+
+    /**
+     * Length of the binary consumer control report: one 16 bit usage.
+     */
+    public static final int REPORT_LENGTH = 2;
+
+    ConsumerReport() {
+        super(REPORT_LENGTH);
+    }
+
+    /**
+     * Pack a consumer control report into a single {@code long}.
+     *
+     * @param usage Usage ID of the pressed control, or 0 if none.
+     * @return Packed report.
+     */
+    static long pack(int usage) {
+        return usage & 0xFFFFL;
+    }
+
+    /**
+     * Interface to send the consumer control data with.
+     */
+    public interface ConsumerDataSender {
+        /**
+         * Send consumer control data to the connected HID Host device.
+         *
+         * @param usage Usage ID of the pressed control (e.g. 0xE9 for volume up), or 0 to release
+         *              it.
+         */
+        void sendConsumer(int usage);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.bluetooth;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waiting for absolute {@link System#nanoTime()} deadlines. The thread parks until shortly before
+ * the deadline and spins for the rest, because parking alone wakes up tens of microseconds late.
+ * Deadlines that already passed return immediately, so callers that advance a deadline by a fixed
+ * step don't drift.
+ */
+public final class Deadlines {
+
+    /**
+     * Time before the deadline at which waiting switches from parking to spinning, which covers the
+     * usual wake-up latency of a parked thread.
+     */
+    public static final long DEFAULT_SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private Deadlines() {
+    }
+
+    /**
+     * Wait until the deadline.
+     *
+     * @param deadline  Value of {@link System#nanoTime()} to wait for.
+     * @param spinNanos Time before the deadline to spin instead of parking, 0 to only park.
+     * @throws InterruptedException if the thread was interrupted while parking.
+     */
+    public static void await(long deadline, long spinNanos) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > spinNanos) {
+            LockSupport.parkNanos(remaining - spinNanos);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        spin(deadline);
+    }
+
+    /**
+     * Wait until the deadline, even if the thread is interrupted. The interrupt status is restored
+     * before returning.
+     *
+     * @param deadline  Value of {@link System#nanoTime()} to wait for.
+     * @param spinNanos Time before the deadline to spin instead of parking, 0 to only park.
+     */
+    public static void awaitUninterruptibly(long deadline, long spinNanos) {
+        boolean interrupted = false;
+        try {
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > spinNanos) {
+                LockSupport.parkNanos(remaining - spinNanos);
+                // Parking returns immediately while the interrupt status is set.
+                interrupted |= Thread.interrupted();
+            }
+            spin(deadline);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void spin(long deadline) {
+        while (deadline - System.nanoTime() > 0) {
+            // Busy wait, the deadline is only microseconds away.
+        }
+    }
+}
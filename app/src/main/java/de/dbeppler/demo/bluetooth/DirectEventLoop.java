@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.bluetooth;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event loop without a {@link android.os.Looper}, for running on a plain JVM: commands run right
+ * away on the calling thread, and delayed commands on a timer thread.
+ */
+final class DirectEventLoop implements EventLoop {
+
+    private final ScheduledExecutorService timer = new ScheduledThreadPoolExecutor(1, command -> {
+        Thread thread = new Thread(command, "HidEventLoopTimer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<Runnable, Future<?>> delayed = new ConcurrentHashMap<>();
+
+    @Override
+    public void execute(Runnable command) {
+        command.run();
+    }
+
+    @Override
+    public void executeDelayed(Runnable command, long delayMillis) {
+        delayed.put(command, timer.schedule(() -> {
+            delayed.remove(command);
+            command.run();
+        }, delayMillis, TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public void cancel(Runnable command) {
+        Future<?> future = delayed.remove(command);
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+}
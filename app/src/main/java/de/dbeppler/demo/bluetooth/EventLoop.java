@@ -0,0 +1,41 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.bluetooth;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Executor for the connection management that can also run commands after a delay, so timers
+ * don't need a thread of their own.
+ */
+interface EventLoop extends Executor {
+
+    /**
+     * Run the command once the delay has passed.
+     *
+     * @param command     Command to run. The same instance is passed to {@link #cancel}.
+     * @param delayMillis Time to wait before running the command.
+     */
+    void executeDelayed(Runnable command, long delayMillis);
+
+    /**
+     * Remove the command if it hasn't run yet. A command that is already running isn't stopped.
+     *
+     * @param command Command that was passed to {@link #executeDelayed}.
+     */
+    void cancel(Runnable command);
+}
@@ -19,14 +19,28 @@ package de.dbeppler.demo.bluetooth;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothProfile;
 import android.content.Context;
-import android.util.ArraySet;
+import android.os.Handler;
+import android.os.Looper;
 
+import androidx.annotation.IntDef;
 import androidx.annotation.MainThread;
+import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 
 import de.dbeppler.demo.bluetooth.HidDeviceProfile.ServiceStateListener;
+import de.dbeppler.demo.bluetooth.ReportDeliveryException.Reason;
+import de.dbeppler.demo.metrics.LatencyHistogram;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
@@ -35,48 +49,230 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * Central point for enabling the HID SDP record and sending all data.
+ *
+ * <p>The HID Device callbacks and the connection management run on the {@link HidEventLoop}, and
+ * the reports are sent by a writer thread, so neither depends on the UI. Profile listeners are
+ * notified on the main thread.
+ *
+ * <p>When the link to the HID Host drops, the last host is reconnected automatically, see
+ * {@link #setAutoReconnectEnabled}. Until then, reports are kept in the queue and sent once the
+ * link is back.
  */
 public class HidDataSender
-        implements KeyboardReport.KeyboardDataSender {
+        implements KeyboardReport.KeyboardDataSender,
+        MouseReport.PointerDataSender,
+        ConsumerReport.ConsumerDataSender {
 
     /**
-     * Compound interface that listens to both device and service state changes.
+     * Compound interface that listens to both device and service state changes. All callbacks
+     * arrive on the main thread.
      */
     public interface ProfileListener
             extends HidDeviceApp.DeviceStateListener, ServiceStateListener {
     }
 
+    /**
+     * What happens when a report is sent while the outgoing report queue is full.
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({
+            OverflowPolicy.BLOCK,
+            OverflowPolicy.DROP_OLDEST,
+            OverflowPolicy.FAIL
+    })
+    public @interface OverflowPolicy {
+        /** Wait until the writer thread has made room for the report. */
+        int BLOCK = 0;
+        /** Discard the oldest queued report to make room for the new one. */
+        int DROP_OLDEST = 1;
+        /** Discard the new report and throw an {@link IllegalStateException}. */
+        int FAIL = 2;
+    }
+
+    /**
+     * Stages of a keyboard report on its way to the HID Host, see {@link #getLatency}.
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({
+            LatencyStage.ENQUEUE,
+            LatencyStage.QUEUE_WAIT,
+            LatencyStage.PACING,
+            LatencyStage.LOCK_WAIT,
+            LatencyStage.TRANSPORT,
+            LatencyStage.END_TO_END
+    })
+    public @interface LatencyStage {
+        /** From {@link #sendKeyboard} until the report is queued, includes a full queue. */
+        int ENQUEUE = 0;
+        /**
+         * From being queued until the writer thread takes the report, apart from pacing. Includes
+         * holding the report back until its deadline, see {@link #sendKeyboardAt}.
+         */
+        int QUEUE_WAIT = 1;
+        /** Holding the report back to stay within the QoS token rate. */
+        int PACING = 2;
+        /** Waiting for the lock that guards the connection state. */
+        int LOCK_WAIT = 3;
+        /** Sending the report until the transport returns. */
+        int TRANSPORT = 4;
+        /** From {@link #sendKeyboard} until the transport returns. */
+        int END_TO_END = 5;
+    }
+
+    private static final int REPORT_QUEUE_CAPACITY = 256;
+    private static final int CONSUMER_QUEUE_CAPACITY = 32;
+    private static final int POINTER_QUEUE_CAPACITY = 16;
+
+    /** Size of a keyboard report on the link: report ID and report data. */
+    private static final int KEYBOARD_REPORT_SIZE = 1 + KeyboardReport.REPORT_LENGTH;
+    private static final int MOUSE_REPORT_SIZE = 1 + MouseReport.REPORT_LENGTH;
+    private static final int CONSUMER_REPORT_SIZE = 1 + ConsumerReport.REPORT_LENGTH;
+    private static final int KEYBOARD_BITMAP_REPORT_SIZE = 1 + KeyboardBitmapReport.REPORT_LENGTH;
+
+    private static final long RECONNECT_INITIAL_DELAY_MILLIS = 500;
+    private static final long RECONNECT_MAX_DELAY_MILLIS = 16_000;
+    private static final int RECONNECT_MAX_ATTEMPTS = 8;
+
+    /**
+     * How long the writer thread waits for the disconnection to be reported after the link
+     * dropped, before it counts the report as rejected. The transport may fail before the
+     * connection state callback arrives.
+     */
+    private static final long LINK_LOSS_TIMEOUT_MILLIS = 200;
+
     static final class InstanceHolder {
         static final HidDataSender INSTANCE = createInstance();
 
         private static HidDataSender createInstance() {
-            return new HidDataSender(new HidDeviceApp(), new HidDeviceProfile());
+            HidEventLoop eventLoop = new HidEventLoop();
+            return new HidDataSender(
+                    new HidDeviceApp(eventLoop),
+                    new HidDeviceProfile(eventLoop),
+                    eventLoop,
+                    new Handler(Looper.getMainLooper())::post);
         }
     }
 
     private final HidDeviceApp hidDeviceApp;
     private final HidDeviceProfile hidDeviceProfile;
+    private final EventLoop eventLoop;
+    private final Executor mainThreadExecutor;
 
     private final Object lock = new Object();
 
-    @GuardedBy("lock")
-    private final Set<ProfileListener> listeners = new ArraySet<>();
+    private final ReportScheduler reportScheduler = new ReportScheduler(
+            REPORT_QUEUE_CAPACITY, CONSUMER_QUEUE_CAPACITY, POINTER_QUEUE_CAPACITY);
+    private final ReportQueue reportQueue = reportScheduler.getKeyboardQueue();
+    private final ReportPacer reportPacer;
+    private volatile boolean pacingEnabled = true;
+    private volatile boolean keyboardBitmapEnabled;
+
+    private final ConnectionMetrics connectionMetrics = new ConnectionMetrics();
+
+    private final LatencyHistogram[] latencies = {
+            new LatencyHistogram(), // ENQUEUE
+            new LatencyHistogram(), // QUEUE_WAIT
+            new LatencyHistogram(), // PACING
+            new LatencyHistogram(), // LOCK_WAIT
+            new LatencyHistogram(), // TRANSPORT
+            new LatencyHistogram()  // END_TO_END
+    };
+
+    /**
+     * Registered listeners. They are only added and removed under the lock, but iterated over a
+     * snapshot without it, so a slow listener never holds up the writer thread. The snapshot is
+     * taken when the event happens, so a listener that was registered at that time gets it.
+     */
+    private final Set<ProfileListener> listeners = new CopyOnWriteArraySet<>();
 
     @GuardedBy("lock")
     @Nullable
     private BluetoothDevice connectedDevice;
 
+    @GuardedBy("lock")
+    @Nullable
+    private Thread writerThread;
+
     @GuardedBy("lock")
     @Nullable
     private BluetoothDevice waitingForDevice;
 
+    @GuardedBy("lock")
+    private boolean autoReconnectEnabled = true;
+
+    /**
+     * Host that is closing the connection on purpose while its state change is handled. Only an
+     * orderly disconnection passes through the disconnecting state, a dropped link doesn't.
+     */
+    @GuardedBy("lock")
+    @Nullable
+    private BluetoothDevice closingDevice;
+
     /**
-     * @param hidDeviceApp     HID Device App interface.
-     * @param hidDeviceProfile Interface to manage paired HID Host devices.
+     * Whether the link dropped and is being reconnected. Reports are accepted and kept until then.
+     * Only changed under the lock, which is notified whenever it is cleared.
      */
-    private HidDataSender(HidDeviceApp hidDeviceApp, HidDeviceProfile hidDeviceProfile) {
+    private volatile boolean reconnecting;
+
+    /** Number of times reconnecting started, so a link loss is noticed even if it is over. */
+    @GuardedBy("lock")
+    private int linkLosses;
+
+    /** Whether the last reconnect brought the link back, rather than being given up. */
+    @GuardedBy("lock")
+    private boolean reconnected;
+
+    /** Host that is being reconnected, {@code null} while reconnecting to a transport. */
+    @GuardedBy("lock")
+    @Nullable
+    private BluetoothDevice reconnectDevice;
+
+    /** Schedules the connection attempts of the current reconnect on the event loop. */
+    @GuardedBy("lock")
+    @Nullable
+    private ReconnectTask reconnectTask;
+
+    @GuardedBy("lock")
+    private final ResumeFilter resumeFilter = new ResumeFilter();
+
+    /** Keys of the last bitmap report that was taken by the writer thread. */
+    @GuardedBy("lock")
+    private long bitmapKeys;
+    @GuardedBy("lock")
+    private long bitmapKeysHigh;
+    /** Whether the last bitmap report was sent as boot reports. */
+    @GuardedBy("lock")
+    private boolean bitmapSentAsBoot;
+
+    /**
+     * @param hidDeviceApp       HID Device App interface.
+     * @param hidDeviceProfile   Interface to manage paired HID Host devices.
+     * @param eventLoop          Event loop that runs the connection management, the same one that
+     *                           delivers the callbacks of the app and profile.
+     * @param mainThreadExecutor Executor that notifies the profile listeners.
+     */
+    HidDataSender(HidDeviceApp hidDeviceApp, HidDeviceProfile hidDeviceProfile,
+            EventLoop eventLoop, Executor mainThreadExecutor) {
+        this(hidDeviceApp, hidDeviceProfile, eventLoop, mainThreadExecutor,
+                new ReportPacer(Constants.QOS_TOKEN_RATE, Constants.QOS_TOKEN_BUCKET_SIZE));
+    }
+
+    /**
+     * @param hidDeviceApp       HID Device App interface.
+     * @param hidDeviceProfile   Interface to manage paired HID Host devices.
+     * @param eventLoop          Event loop that runs the connection management, the same one that
+     *                           delivers the callbacks of the app and profile.
+     * @param mainThreadExecutor Executor that notifies the profile listeners.
+     * @param reportPacer        Token bucket that holds the reports back to the QoS settings.
+     */
+    @VisibleForTesting
+    HidDataSender(HidDeviceApp hidDeviceApp, HidDeviceProfile hidDeviceProfile,
+            EventLoop eventLoop, Executor mainThreadExecutor, ReportPacer reportPacer) {
         this.hidDeviceApp = checkNotNull(hidDeviceApp);
         this.hidDeviceProfile = checkNotNull(hidDeviceProfile);
+        this.eventLoop = checkNotNull(eventLoop);
+        this.mainThreadExecutor = checkNotNull(mainThreadExecutor);
+        this.reportPacer = checkNotNull(reportPacer);
     }
 
     /**
@@ -88,6 +284,40 @@ public class HidDataSender
         return InstanceHolder.INSTANCE;
     }
 
+    /**
+     * Create an instance that sends all data over the transport instead of a Bluetooth connection.
+     * It doesn't need the Android Bluetooth stack, so the whole send path can run on a plain JVM,
+     * e.g. against a {@link LoopbackHidHost} in tests and benchmarks.
+     *
+     * @param transport Transport to send all data over.
+     * @return New instance that is connected right away.
+     */
+    @VisibleForTesting
+    public static HidDataSender createForTransport(HidTransport transport) {
+        return createForTransport(transport,
+                new ReportPacer(Constants.QOS_TOKEN_RATE, Constants.QOS_TOKEN_BUCKET_SIZE));
+    }
+
+    /**
+     * Create an instance that sends all data over the transport, paced by the given token bucket.
+     *
+     * @param transport   Transport to send all data over.
+     * @param reportPacer Token bucket that holds the reports back, e.g. on a fake clock.
+     * @return New instance that is connected right away.
+     */
+    @VisibleForTesting
+    static HidDataSender createForTransport(HidTransport transport, ReportPacer reportPacer) {
+        HidDeviceApp hidDeviceApp = new HidDeviceApp(Runnable::run);
+        hidDeviceApp.setTransport(checkNotNull(transport));
+        HidDataSender hidDataSender = new HidDataSender(hidDeviceApp,
+                new HidDeviceProfile(null, Runnable::run), new DirectEventLoop(), Runnable::run,
+                reportPacer);
+        synchronized (hidDataSender.lock) {
+            hidDataSender.startWriter();
+        }
+        return hidDataSender;
+    }
+
     /**
      * Ensure that the HID Device SDP record is registered and start listening for the profile proxy
      * and HID Host connection state changes.
@@ -108,8 +338,13 @@ public class HidDataSender
                 return hidDeviceProfile;
             }
 
-            hidDeviceProfile.registerServiceListener(context, profileListener);
-            hidDeviceApp.registerDeviceListener(profileListener);
+            connectionMetrics.onServiceRequested();
+            eventLoop.execute(() -> {
+                hidDeviceProfile.registerServiceListener(context, profileListener);
+                hidDeviceApp.registerDeviceListener(profileListener);
+            });
+
+            startWriter();
         }
         return hidDeviceProfile;
     }
@@ -132,6 +367,19 @@ public class HidDataSender
                 return;
             }
 
+            if (writerThread != null) {
+                writerThread.interrupt();
+                writerThread = null;
+            }
+            cancelReconnect();
+            reportScheduler.clear();
+        }
+        eventLoop.execute(this::shutDown);
+    }
+
+    @WorkerThread
+    private void shutDown() {
+        synchronized (lock) {
             hidDeviceApp.unregisterDeviceListener();
 
             for (BluetoothDevice device : hidDeviceProfile.getConnectedDevices()) {
@@ -154,7 +402,7 @@ public class HidDataSender
      * @return {@code true} if HID Host is connected, {@code false} otherwise.
      */
     public boolean isConnected() {
-        return (connectedDevice != null);
+        return hidDeviceApp.hasTransport();
     }
 
     /**
@@ -166,76 +414,793 @@ public class HidDataSender
      */
     @MainThread
     public void requestConnect(BluetoothDevice device) {
+        if (device != null) {
+            connectionMetrics.onConnectRequested(device.getAddress());
+        }
+        eventLoop.execute(() -> {
+            boolean alreadyConnected;
+            synchronized (lock) {
+                // Reports that were kept for the previous host aren't meant for this one.
+                cancelReconnect();
+                waitingForDevice = device;
+                connectedDevice = null;
+
+                updateDeviceList();
+
+                alreadyConnected = device != null && device.equals(connectedDevice);
+            }
+            if (alreadyConnected) {
+                // The device won't report the connected state again.
+                connectionMetrics.onConnectCancelled(device.getAddress());
+                notifyListeners(listener -> listener.onDeviceStateChanged(
+                        device, BluetoothProfile.STATE_CONNECTED));
+            }
+        });
+    }
+
+    /**
+     * Change what happens when reports are sent faster than the HID Host accepts them and the
+     * outgoing report queue fills up. The default is {@link OverflowPolicy#BLOCK}.
+     *
+     * @param policy New overflow policy.
+     */
+    public void setOverflowPolicy(@OverflowPolicy int policy) {
+        reportQueue.setOverflowPolicy(policy);
+    }
+
+    /**
+     * Limit the number of keyboard reports that may be waiting to be sent. Once the limit is
+     * reached, the overflow policy applies; with {@link OverflowPolicy#BLOCK} producers are slowed
+     * down to the rate at which the HID Host accepts reports. By default, the limit is the capacity
+     * of the queue.
+     *
+     * @param maxReports Maximum number of waiting reports, between 1 and 256.
+     */
+    public void setMaxPendingReports(int maxReports) {
+        reportQueue.setLimit(maxReports);
+    }
+
+    /**
+     * Enable or disable holding reports back to the token rate and bucket size of the QoS settings
+     * that were negotiated with the HID Host. Pacing is enabled by default, so bursts of reports are
+     * not dropped by the host; disabling it sends every report as soon as the transport accepts it.
+     *
+     * @param enabled {@code true} to pace the reports.
+     */
+    public void setPacingEnabled(boolean enabled) {
+        pacingEnabled = enabled;
+    }
+
+    /**
+     * Enable or disable the N-key rollover keyboard report. Typing engines use it to press any
+     * number of keys in a single report, as long as the HID Host didn't switch to the boot
+     * protocol. It is disabled by default, so all hosts get the boot keyboard report.
+     *
+     * @param enabled {@code true} to send bitmap reports.
+     */
+    public void setKeyboardBitmapEnabled(boolean enabled) {
+        keyboardBitmapEnabled = enabled;
+    }
+
+    /**
+     * Enable or disable reconnecting to the HID Host when the link drops. While reconnecting,
+     * reports are kept in the queue instead of being discarded, and the report that was being sent
+     * is sent again once the link is back, so no keystroke is lost or repeated. Before that, all
+     * keys and buttons are released, in case the host still holds any. Attempts are made with
+     * exponentially growing delays of up to 16 seconds; after 8 failed attempts the waiting reports
+     * fail with {@link ReportDeliveryException.Reason#NOT_CONNECTED}. A host that closes the
+     * connection on purpose is not reconnected. Enabled by default.
+     *
+     * @param enabled {@code true} to reconnect automatically.
+     */
+    public void setAutoReconnectEnabled(boolean enabled) {
         synchronized (lock) {
-            waitingForDevice = device;
-            connectedDevice = null;
+            autoReconnectEnabled = enabled;
+            if (!enabled && reconnecting) {
+                giveUpReconnect();
+            }
+        }
+    }
 
-            updateDeviceList();
+    /**
+     * Check if the link dropped and is being reconnected, see {@link #setAutoReconnectEnabled}.
+     *
+     * @return {@code true} if reports are kept until the HID Host is connected again.
+     */
+    public boolean isReconnecting() {
+        return reconnecting;
+    }
 
-            if (device != null && device.equals(connectedDevice)) {
-                for (ProfileListener listener : listeners) {
-                    listener.onDeviceStateChanged(device, BluetoothProfile.STATE_CONNECTED);
-                }
+    /**
+     * Replace the transport, like a Bluetooth connection that drops and comes back. Removing the
+     * transport starts reconnecting; as there is no device to connect to, it only ends when a
+     * transport is set again or reconnecting is given up.
+     *
+     * @param transport New transport, or {@code null} if the link dropped.
+     */
+    @VisibleForTesting
+    void setTransport(@Nullable HidTransport transport) {
+        synchronized (lock) {
+            boolean lost = hidDeviceApp.hasTransport() && transport == null;
+            hidDeviceApp.setTransport(transport);
+            if (lost) {
+                onLinkLost(null);
+            } else if (transport != null && reconnecting) {
+                onLinkRestored();
             }
         }
     }
 
+    /**
+     * Remove the transport like a HID Host that closes the connection on purpose. Unlike a dropped
+     * link, this doesn't start reconnecting.
+     */
+    @VisibleForTesting
+    void closeTransport() {
+        synchronized (lock) {
+            hidDeviceApp.setTransport(null);
+        }
+    }
+
+    /**
+     * Start or stop recording every report that the HID Host accepted, e.g. to find out what was
+     * sent to a misbehaving host. Recording is off by default. The recorder is not closed when it
+     * is replaced.
+     *
+     * @param recorder Log to append the reports to, or {@code null} to stop recording.
+     */
+    public void setReportRecorder(@Nullable ReportRecorder recorder) {
+        hidDeviceApp.setRecorder(recorder);
+    }
+
+    /**
+     * Get the time that keyboard reports spent in the stage since the last reset.
+     *
+     * @param stage Stage of the report.
+     * @return Histogram of the latencies in nanoseconds.
+     */
+    public LatencyHistogram.Snapshot getLatency(@LatencyStage int stage) {
+        return latencies[stage].snapshot();
+    }
+
+    /**
+     * Get how long it took to get connected and how often connections were made, failed or came
+     * back since the last reset.
+     *
+     * @return Current connection metrics.
+     */
+    public ConnectionMetrics.Snapshot getConnectionMetrics() {
+        return connectionMetrics.snapshot();
+    }
+
+    /**
+     * Start measuring the connection metrics from scratch.
+     */
+    public void resetConnectionMetrics() {
+        connectionMetrics.reset();
+    }
+
+    /**
+     * Start measuring the latencies from scratch, e.g. for a new session.
+     */
+    public void resetLatencies() {
+        for (LatencyHistogram latency : latencies) {
+            latency.snapshotAndReset();
+        }
+    }
+
+    /**
+     * Queue the keyboard report for the writer thread. This only blocks when the queue is full
+     * and the overflow policy is {@link OverflowPolicy#BLOCK}.
+     *
+     * @throws IllegalStateException if the queue is full and the overflow policy is
+     *                               {@link OverflowPolicy#FAIL}.
+     */
     @Override
     @WorkerThread
     public void sendKeyboard(
             int modifier, int key1, int key2, int key3, int key4, int key5, int key6) {
-        synchronized (lock) {
-            if (connectedDevice != null) {
-                hidDeviceApp.sendKeyboard(modifier, key1, key2, key3, key4, key5, key6);
+        if (isAccepting()) {
+            enqueue(KeyboardReport.pack(modifier, key1, key2, key3, key4, key5, key6));
+        }
+    }
+
+    /**
+     * Queue a keyboard report that the writer thread holds back until the deadline, see
+     * {@link #sendKeyboard}. The writer waits for the deadline after pacing, so the report reaches
+     * the HID Host on time even if it was queued behind others, and the jitter is recorded when
+     * the transport accepted it. Reports that are queued after it wait as well, so they stay in
+     * order.
+     */
+    @Override
+    @WorkerThread
+    public void sendKeyboardAt(long deadline, LatencyHistogram jitter, int modifier,
+            int key1, int key2, int key3, int key4, int key5, int key6) {
+        if (isAccepting()) {
+            long requestTime = System.nanoTime();
+            if (reportQueue.offerAt(KeyboardReport.pack(modifier, key1, key2, key3, key4, key5,
+                    key6), deadline, jitter, requestTime)) {
+                latencies[LatencyStage.ENQUEUE].record(System.nanoTime() - requestTime);
             }
         }
     }
 
+    /**
+     * Queue all keyboard reports for the writer thread, see {@link #sendKeyboard}.
+     */
+    @Override
+    @WorkerThread
+    public void sendKeyboardReports(byte[] reports, int offset, int count) {
+        for (int i = 0; i < count && isAccepting(); i++) {
+            enqueue(KeyboardReport.pack(reports, offset + i * KeyboardReport.REPORT_LENGTH));
+        }
+    }
+
+    @Override
+    public boolean isKeyboardBitmapSupported() {
+        return keyboardBitmapEnabled && !hidDeviceApp.isBootProtocol();
+    }
+
+    /**
+     * Queue the bitmap keyboard report for the writer thread, in order with the boot keyboard
+     * reports. If bitmap reports aren't supported when the report is sent, e.g. because the host
+     * switched to the boot protocol in the meantime, the newly pressed keys are sent in boot
+     * keyboard reports instead, see {@link #sendBitmapReport}.
+     */
+    @Override
+    @WorkerThread
+    public void sendKeyboardBitmap(int modifier, long keys, long keysHigh) {
+        if (isAccepting()) {
+            long requestTime = System.nanoTime();
+            if (reportQueue.offer(Constants.ID_KEYBOARD_BITMAP,
+                    KeyboardBitmapReport.packLow(modifier, keys),
+                    KeyboardBitmapReport.packHigh(keys, keysHigh),
+                    requestTime, null)) {
+                latencies[LatencyStage.ENQUEUE].record(System.nanoTime() - requestTime);
+            }
+        }
+    }
+
+    /**
+     * Add the pointer movement to the pending pointer reports of the writer thread. Keyboard
+     * reports are always sent first, and movements that arrive until the next free slot are added
+     * up, so this never blocks.
+     */
+    @Override
+    public void sendPointer(int buttons, int dx, int dy, int wheel) {
+        if (isAccepting()) {
+            reportScheduler.offerPointer(buttons, dx, dy, wheel);
+        }
+    }
+
+    /**
+     * Queue the consumer control report for the writer thread. It is sent after all waiting
+     * keyboard reports and blocks while 32 consumer control reports are waiting.
+     */
+    @Override
+    @WorkerThread
+    public void sendConsumer(int usage) {
+        if (isAccepting()) {
+            reportScheduler.getConsumerQueue()
+                    .offer(ConsumerReport.pack(usage), System.nanoTime(), null);
+        }
+    }
+
+    /**
+     * Queue the keyboard report for the writer thread, like {@link #sendKeyboard}, and report the
+     * result.
+     *
+     * @return Future that succeeds once the transport accepted the report, or fails with a
+     * {@link ReportDeliveryException}.
+     */
+    @WorkerThread
+    public ListenableFuture<Void> submitKeyboard(
+            int modifier, int key1, int key2, int key3, int key4, int key5, int key6) {
+        byte[] report = {
+                (byte) modifier, 0, (byte) key1, (byte) key2,
+                (byte) key3, (byte) key4, (byte) key5, (byte) key6
+        };
+        return submitKeyboardReports(report, 0, 1);
+    }
+
+    /**
+     * Queue all keyboard reports for the writer thread, like {@link #sendKeyboardReports}, and
+     * report the result for the whole batch. Listeners of the future that are added with a direct
+     * executor run on the writer thread and have to be fast.
+     *
+     * @param reports Array that contains the binary reports.
+     * @param offset  Index of the first byte of the first report.
+     * @param count   Number of reports to send.
+     * @return Future that succeeds once the transport accepted all reports, or fails with a
+     * {@link ReportDeliveryException} for the first one that didn't reach the HID Host. If only
+     * part of the batch could be queued, a report that releases all keys is queued after it.
+     */
+    @WorkerThread
+    public ListenableFuture<Void> submitKeyboardReports(byte[] reports, int offset, int count) {
+        if (count == 0) {
+            return Futures.immediateFuture(null);
+        }
+        ReportBatch batch = new ReportBatch(count);
+        for (int i = 0; i < count; i++) {
+            @Reason int reason;
+            if (!isAccepting()) {
+                reason = Reason.NOT_CONNECTED;
+            } else {
+                try {
+                    if (enqueue(KeyboardReport.pack(
+                            reports, offset + i * KeyboardReport.REPORT_LENGTH), batch)) {
+                        continue;
+                    }
+                } catch (IllegalStateException e) {
+                    // The queue is full and the overflow policy is FAIL.
+                }
+                reason = Reason.DROPPED;
+            }
+            batch.fail(reason);
+            if (i > 0 && isAccepting()) {
+                // The queued part of the batch may have left keys pressed.
+                reportQueue.offerOverLimit(0, System.nanoTime());
+            }
+            break;
+        }
+        return batch;
+    }
+
+    /**
+     * Check if reports are queued: while connected, and while the link is being reconnected.
+     */
+    private boolean isAccepting() {
+        return hidDeviceApp.hasTransport() || reconnecting;
+    }
+
+    private void enqueue(long report) {
+        enqueue(report, null);
+    }
+
+    private boolean enqueue(long report, @Nullable ReportBatch batch) {
+        long requestTime = System.nanoTime();
+        if (!reportQueue.offer(report, requestTime, batch)) {
+            return false;
+        }
+        latencies[LatencyStage.ENQUEUE].record(System.nanoTime() - requestTime);
+        return true;
+    }
+
+    @GuardedBy("lock")
+    private void startWriter() {
+        writerThread = new Thread(this::writeReports, "HidReportWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @WorkerThread
+    private void writeReports() {
+        try {
+            while (true) {
+                reportScheduler.awaitReport();
+                long ready = System.nanoTime();
+                if (pacingEnabled) {
+                    // Wait for a slot that fits the largest report, and only then pick the report
+                    // with the highest priority, so a keystroke never waits behind a pointer report.
+                    reportPacer.awaitTokens(KEYBOARD_BITMAP_REPORT_SIZE);
+                }
+                long paced = System.nanoTime();
+                byte id = reportScheduler.take();
+                long report = reportScheduler.getTakenReport();
+                long reportHigh = reportScheduler.getTakenReportHigh();
+                boolean keyboard =
+                        id == Constants.ID_KEYBOARD || id == Constants.ID_KEYBOARD_BITMAP;
+                @Nullable LatencyHistogram jitter = keyboard ? reportQueue.getTakenJitter() : null;
+                if (jitter != null) {
+                    Deadlines.await(reportQueue.getTakenDeadline(), Deadlines.DEFAULT_SPIN_NANOS);
+                }
+                long taken = System.nanoTime();
+                if (pacingEnabled && id != Constants.ID_KEYBOARD_BITMAP) {
+                    // A bitmap report may go out as boot reports that take their own tokens.
+                    reportPacer.consume(getReportSize(id));
+                }
+                long lockAcquired;
+                boolean connected;
+                boolean sent;
+                synchronized (lock) {
+                    lockAcquired = System.nanoTime();
+                    sent = id == Constants.ID_KEYBOARD_BITMAP
+                            ? sendBitmapReport(report, reportHigh)
+                            : sendReport(id, report, reportHigh);
+                    connected = hidDeviceApp.hasTransport();
+                }
+                long transportReturned = System.nanoTime();
+
+                if (keyboard) {
+                    onKeyboardReportSent(ready, paced, taken, lockAcquired, transportReturned,
+                            sent, connected);
+                }
+                if (jitter != null && sent) {
+                    jitter.record(transportReturned - reportQueue.getTakenDeadline());
+                }
+            }
+        } catch (InterruptedException e) {
+            // The last listener was unregistered. Reports are only taken once they can be sent, so
+            // none is lost here; the waiting ones were cancelled by clearing the queues.
+        }
+    }
+
+    /**
+     * Send a bitmap report, or boot reports that press the same new keys if the HID Host doesn't
+     * understand bitmap reports right now. Keys held in one report type aren't released by the
+     * other one, so all keys are released when the type changes, and only the keys that weren't
+     * pressed before are pressed again. More than six new keys are pressed six at a time, in scan
+     * code order like the host types them from a bitmap report. Each report that goes out takes its
+     * own tokens.
+     *
+     * @return {@code true} if the transport accepted all reports.
+     */
+    @GuardedBy("lock")
+    @WorkerThread
+    private boolean sendBitmapReport(long report, long reportHigh) throws InterruptedException {
+        int modifier = (int) report & 0xFF;
+        long keys = report >>> 8 | reportHigh << 56;
+        long keysHigh = reportHigh >>> 8;
+        long newKeys = keys & ~bitmapKeys;
+        long newKeysHigh = keysHigh & ~bitmapKeysHigh;
+        bitmapKeys = keys;
+        bitmapKeysHigh = keysHigh;
+
+        boolean boot = !keyboardBitmapEnabled || hidDeviceApp.isBootProtocol();
+        boolean sent = true;
+        if (boot != bitmapSentAsBoot) {
+            bitmapSentAsBoot = boot;
+            sent = sendPacedReport(Constants.ID_KEYBOARD, 0, 0);
+            keys = newKeys;
+            keysHigh = newKeysHigh;
+        }
+        if (!boot) {
+            return sendPacedReport(Constants.ID_KEYBOARD_BITMAP,
+                    KeyboardBitmapReport.packLow(modifier, keys),
+                    KeyboardBitmapReport.packHigh(keys, keysHigh)) && sent;
+        }
+
+        long slots = 0;
+        int count = 0;
+        boolean reported = false;
+        for (int key = 0; key <= KeyboardBitmapReport.MAX_KEY; key++) {
+            long bits = key < Long.SIZE ? newKeys : newKeysHigh;
+            if ((bits & 1L << key) == 0) {
+                continue;
+            }
+            slots |= (long) key << (16 + 8 * count);
+            if (++count == KeyboardReport.MAX_KEYS) {
+                sent &= sendPacedReport(Constants.ID_KEYBOARD, modifier | slots, 0);
+                reported = true;
+                slots = 0;
+                count = 0;
+            }
+        }
+        if (count > 0 || !reported) {
+            // Also sent without new keys, to release keys and change the modifiers.
+            sent &= sendPacedReport(Constants.ID_KEYBOARD, modifier | slots, 0);
+        }
+        return sent;
+    }
+
+    /**
+     * Wait for the tokens of a report if pacing is enabled, then send it like
+     * {@link #sendReport(byte, long, long)}.
+     *
+     * @return {@code true} if the transport accepted the report.
+     */
+    @GuardedBy("lock")
+    @WorkerThread
+    private boolean sendPacedReport(byte id, long report, long reportHigh)
+            throws InterruptedException {
+        if (pacingEnabled) {
+            reportPacer.acquire(getReportSize(id));
+        }
+        return sendReport(id, report, reportHigh);
+    }
+
+    /**
+     * Send a report, and if the link dropped, wait until it is reconnected and send it again.
+     *
+     * @return {@code true} if the transport accepted the report.
+     */
+    @GuardedBy("lock")
+    @WorkerThread
+    private boolean sendReport(byte id, long report, long reportHigh)
+            throws InterruptedException {
+        while (true) {
+            resumeFilter.filter(id, report, reportHigh);
+            long filtered = resumeFilter.getReport();
+            long filteredHigh = resumeFilter.getReportHigh();
+            if (hidDeviceApp.sendReport(id, filtered, filteredHigh)) {
+                resumeFilter.onSent(id, filtered, filteredHigh);
+                return true;
+            }
+            if (!awaitReconnect()) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Wait while the link is being reconnected, after sending a report failed.
+     *
+     * @return {@code true} if the link is back and the report should be sent again.
+     */
+    @GuardedBy("lock")
+    @WorkerThread
+    private boolean awaitReconnect() throws InterruptedException {
+        if (!autoReconnectEnabled) {
+            return false;
+        }
+        if (!reconnecting && hidDeviceApp.hasTransport()) {
+            if (!hidDeviceApp.isTransportLost()) {
+                // The host is still connected, so it rejected the report.
+                return false;
+            }
+            // Give the connection state callback a chance to report the disconnection.
+            int losses = linkLosses;
+            long deadline =
+                    System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LINK_LOSS_TIMEOUT_MILLIS);
+            long remaining;
+            while (linkLosses == losses && (remaining = deadline - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+            }
+            if (linkLosses == losses) {
+                // The disconnection wasn't reported in time, count the report as rejected.
+                return false;
+            }
+        }
+        while (reconnecting) {
+            lock.wait();
+        }
+        return reconnected && hidDeviceApp.hasTransport();
+    }
+
+    /**
+     * The link to the HID Host dropped without being asked to. Start reconnecting if enabled.
+     *
+     * @param device Host to reconnect to, or {@code null} if only a transport can bring it back.
+     */
+    @GuardedBy("lock")
+    private void onLinkLost(@Nullable BluetoothDevice device) {
+        if (!autoReconnectEnabled) {
+            return;
+        }
+        if (reconnectTask != null) {
+            eventLoop.cancel(reconnectTask);
+        }
+        reconnecting = true;
+        reconnected = false;
+        reconnectDevice = device;
+        linkLosses++;
+        lock.notifyAll();
+        reconnectTask = new ReconnectTask(device);
+        eventLoop.execute(reconnectTask);
+    }
+
+    /**
+     * The link came back while reconnecting. Release everything the HID Host may still hold from
+     * before the link dropped, before the writer thread continues with the kept reports. The
+     * releases take their tokens like any other report, so they don't burst onto the new link.
+     */
+    @GuardedBy("lock")
+    private void onLinkRestored() {
+        paceReleaseReport(Constants.ID_KEYBOARD);
+        hidDeviceApp.sendReport(Constants.ID_KEYBOARD, 0);
+        if (isKeyboardBitmapSupported()) {
+            paceReleaseReport(Constants.ID_KEYBOARD_BITMAP);
+            hidDeviceApp.sendReport(Constants.ID_KEYBOARD_BITMAP, 0, 0);
+        }
+        paceReleaseReport(Constants.ID_MOUSE);
+        hidDeviceApp.sendReport(Constants.ID_MOUSE, 0);
+        paceReleaseReport(Constants.ID_CONSUMER);
+        hidDeviceApp.sendReport(Constants.ID_CONSUMER, 0);
+        resumeFilter.onResume();
+        endReconnect(true);
+    }
+
+    /**
+     * Wait for the tokens of a release report that the event loop sends, if pacing is enabled.
+     */
+    private void paceReleaseReport(byte id) {
+        if (!pacingEnabled) {
+            return;
+        }
+        try {
+            reportPacer.acquire(getReportSize(id));
+        } catch (InterruptedException e) {
+            // Releasing the keys matters more than the rate, so send the report anyway.
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stop reconnecting, and let the kept reports fail as the link is still down.
+     */
+    @GuardedBy("lock")
+    private void giveUpReconnect() {
+        endReconnect(false);
+    }
+
+    /**
+     * Stop reconnecting, and discard the kept reports as they aren't meant for the host that
+     * will be connected next.
+     */
+    @GuardedBy("lock")
+    private void cancelReconnect() {
+        if (reconnecting) {
+            endReconnect(false);
+            reportScheduler.clear();
+        }
+    }
+
+    @GuardedBy("lock")
+    private void endReconnect(boolean restored) {
+        reconnecting = false;
+        reconnected = restored;
+        reconnectDevice = null;
+        if (reconnectTask != null) {
+            eventLoop.cancel(reconnectTask);
+            reconnectTask = null;
+        }
+        lock.notifyAll();
+    }
+
+    @GuardedBy("lock")
+    private void attemptReconnect(BluetoothDevice device) {
+        if (connectedDevice != null) {
+            return;
+        }
+        // Don't interrupt an attempt that is still going on.
+        if (hidDeviceProfile
+                .getDevicesMatchingConnectionStates(
+                        new int[]{
+                                BluetoothProfile.STATE_CONNECTED,
+                                BluetoothProfile.STATE_CONNECTING,
+                                BluetoothProfile.STATE_DISCONNECTING
+                        })
+                .isEmpty()) {
+            if (hidDeviceProfile.connect(device)) {
+                connectionMetrics.onConnectRequested(device.getAddress());
+            }
+        }
+    }
+
+    /**
+     * Makes a connection attempt each time it runs, and runs again after a growing delay until the
+     * link is back or the attempts are used up.
+     */
+    private final class ReconnectTask implements Runnable {
+
+        private final ReconnectBackoff backoff = new ReconnectBackoff(
+                RECONNECT_INITIAL_DELAY_MILLIS, RECONNECT_MAX_DELAY_MILLIS, RECONNECT_MAX_ATTEMPTS);
+        @Nullable
+        private final BluetoothDevice device;
+
+        ReconnectTask(@Nullable BluetoothDevice device) {
+            this.device = device;
+        }
+
+        @Override
+        @WorkerThread
+        public void run() {
+            synchronized (lock) {
+                if (reconnectTask != this) {
+                    // Reconnecting ended, or a new link loss started over.
+                    return;
+                }
+                long delay = backoff.nextDelayMillis();
+                if (delay < 0) {
+                    giveUpReconnect();
+                    return;
+                }
+                if (device != null) {
+                    attemptReconnect(device);
+                }
+                eventLoop.executeDelayed(this, delay);
+            }
+        }
+    }
+
+    @WorkerThread
+    private void onKeyboardReportSent(long ready, long paced, long taken, long lockAcquired,
+            long transportReturned, boolean sent, boolean connected) {
+        @Nullable ReportBatch batch = reportQueue.getTakenBatch();
+        if (batch != null) {
+            if (sent) {
+                batch.onReportSent();
+            } else {
+                batch.fail(connected ? Reason.REJECTED : Reason.NOT_CONNECTED);
+            }
+        }
+        // Only the part of the pacing after the report was queued counts against it.
+        long enqueued = reportQueue.getTakenEnqueueTime();
+        long pacing = Math.max(0, paced - Math.max(ready, enqueued));
+        latencies[LatencyStage.QUEUE_WAIT].record(taken - enqueued - pacing);
+        latencies[LatencyStage.PACING].record(pacing);
+        latencies[LatencyStage.LOCK_WAIT].record(lockAcquired - taken);
+        latencies[LatencyStage.TRANSPORT].record(transportReturned - lockAcquired);
+        latencies[LatencyStage.END_TO_END].record(
+                transportReturned - reportQueue.getTakenRequestTime());
+    }
+
+    private static int getReportSize(byte id) {
+        switch (id) {
+            case Constants.ID_MOUSE:
+                return MOUSE_REPORT_SIZE;
+            case Constants.ID_CONSUMER:
+                return CONSUMER_REPORT_SIZE;
+            case Constants.ID_KEYBOARD_BITMAP:
+                return KEYBOARD_BITMAP_REPORT_SIZE;
+            default:
+                return KEYBOARD_REPORT_SIZE;
+        }
+    }
+
     private final ProfileListener profileListener =
             new ProfileListener() {
                 @Override
-                @MainThread
+                @WorkerThread
                 public void onServiceStateChanged(BluetoothProfile proxy) {
                     synchronized (lock) {
                         if (proxy != null) {
+                            connectionMetrics.onServiceConnected();
+                            connectionMetrics.onAppRegisterRequested();
                             hidDeviceApp.registerApp(proxy);
                         }
                         updateDeviceList();
-                        for (ProfileListener listener : listeners) {
-                            listener.onServiceStateChanged(proxy);
-                        }
                     }
+                    notifyListeners(listener -> listener.onServiceStateChanged(proxy));
                 }
 
                 @Override
-                @MainThread
+                @WorkerThread
                 public void onDeviceStateChanged(BluetoothDevice device, int state) {
+                    hidDeviceProfile.onConnectionStateChanged(device, state);
+                    connectionMetrics.onConnectionStateChanged(device.getAddress(), state);
                     synchronized (lock) {
                         if (state == BluetoothProfile.STATE_CONNECTED) {
                             // A new connection was established. If we weren't expecting that, it
                             // must be an incoming one. In that case, we shouldn't try to disconnect
                             // from it.
                             waitingForDevice = device;
+                        } else if (state == BluetoothProfile.STATE_DISCONNECTING) {
+                            closingDevice = device;
                         }
                         updateDeviceList();
-                        for (ProfileListener listener : listeners) {
-                            listener.onDeviceStateChanged(device, state);
-                        }
+                        closingDevice = null;
                     }
+                    notifyListeners(listener -> listener.onDeviceStateChanged(device, state));
                 }
 
                 @Override
-                @MainThread
+                @WorkerThread
+                public void onAppRegistered() {
+                    connectionMetrics.onAppRegistered();
+                    notifyListeners(ProfileListener::onAppRegistered);
+                }
+
+                @Override
+                @WorkerThread
                 public void onAppUnregistered() {
-                    synchronized (lock) {
-                        for (ProfileListener listener : listeners) {
-                            listener.onAppUnregistered();
-                        }
-                    }
+                    notifyListeners(ProfileListener::onAppUnregistered);
                 }
             };
 
-    @MainThread
+    /**
+     * Deliver a callback on the main thread to the listeners that are registered right now.
+     */
+    private void notifyListeners(Consumer<ProfileListener> callback) {
+        ProfileListener[] snapshot = listeners.toArray(new ProfileListener[0]);
+        mainThreadExecutor.execute(() -> {
+            for (ProfileListener listener : snapshot) {
+                callback.accept(listener);
+            }
+        });
+    }
+
+    @WorkerThread
     private void updateDeviceList() {
         synchronized (lock) {
             BluetoothDevice connected = null;
@@ -259,17 +1224,35 @@ public class HidDataSender
                                     BluetoothProfile.STATE_DISCONNECTING
                             })
                     .isEmpty()
-                    && waitingForDevice != null) {
-                hidDeviceProfile.connect(waitingForDevice);
+                    && waitingForDevice != null
+                    && !hidDeviceProfile.connect(waitingForDevice)) {
+                // No connection will be established, so don't keep timing one.
+                connectionMetrics.onConnectCancelled(waitingForDevice.getAddress());
             }
 
+            @Nullable BluetoothDevice lost = null;
             if (connectedDevice == null && connected != null) {
                 connectedDevice = connected;
                 waitingForDevice = null;
             } else if (connectedDevice != null && connected == null) {
+                // Requested disconnections clear the device first, so this one wasn't.
+                lost = connectedDevice;
                 connectedDevice = null;
             }
             hidDeviceApp.setDevice(connectedDevice);
+
+            if (lost != null) {
+                if (!lost.equals(closingDevice)) {
+                    onLinkLost(lost);
+                }
+            } else if (reconnecting && connectedDevice != null) {
+                if (connectedDevice.equals(reconnectDevice)) {
+                    onLinkRestored();
+                } else {
+                    // Another host connected in the meantime.
+                    cancelReconnect();
+                }
+            }
         }
     }
 
@@ -19,14 +19,12 @@ package de.dbeppler.demo.bluetooth;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothHidDevice;
 import android.bluetooth.BluetoothProfile;
-import android.os.Handler;
-import android.os.Looper;
 import android.util.Log;
 
-import androidx.annotation.BinderThread;
-import androidx.annotation.MainThread;
 import androidx.annotation.WorkerThread;
 
+import java.util.concurrent.Executor;
+
 import javax.annotation.Nullable;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -39,7 +37,8 @@ public class HidDeviceApp implements KeyboardReport.KeyboardDataSender {
     private static final String TAG = "HidDeviceApp";
 
     /**
-     * Used to call back when a device connection state has changed.
+     * Used to call back when a device connection state has changed. The callbacks arrive on the
+     * thread of the executor that {@link HidDeviceApp} was created with.
      */
     public interface DeviceStateListener {
         /**
@@ -48,23 +47,39 @@ public class HidDeviceApp implements KeyboardReport.KeyboardDataSender {
          * @param device Device that was connected or disconnected.
          * @param state  New connection state, see {@link BluetoothProfile#EXTRA_STATE}.
          */
-        @MainThread
         void onDeviceStateChanged(BluetoothDevice device, int state);
 
+        /**
+         * Callback that receives the app register event.
+         */
+        default void onAppRegistered() {
+        }
+
         /**
          * Callback that receives the app unregister event.
          */
-        @MainThread
         void onAppUnregistered();
     }
 
     private final KeyboardReport keyboardReport = new KeyboardReport();
-    private final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+    private final MouseReport mouseReport = new MouseReport();
+    private final ConsumerReport consumerReport = new ConsumerReport();
+    private final KeyboardBitmapReport keyboardBitmapReport = new KeyboardBitmapReport();
+    private final Executor callbackExecutor;
 
     @Nullable
-    private BluetoothDevice device;
+    private volatile HidTransport transport;
+    /** Last transport that was created for a device, kept to answer its requests. */
+    @Nullable
+    private volatile BluetoothHidTransport deviceTransport;
     @Nullable
-    private DeviceStateListener deviceStateListener;
+    private volatile DeviceStateListener deviceStateListener;
+
+    /** Set when the HID Host only understands the boot keyboard report. */
+    private volatile boolean bootProtocol;
+
+    @Nullable
+    private volatile ReportRecorder recorder;
 
     /**
      * Callback to receive the HID Device's SDP record state.
@@ -72,7 +87,7 @@ public class HidDeviceApp implements KeyboardReport.KeyboardDataSender {
     private final BluetoothHidDevice.Callback callback =
             new BluetoothHidDevice.Callback() {
                 @Override
-                @BinderThread
+                @WorkerThread
                 public void onAppStatusChanged(BluetoothDevice pluggedDevice, boolean registered) {
                     super.onAppStatusChanged(pluggedDevice, registered);
                     HidDeviceApp.this.registered = registered;
@@ -80,34 +95,41 @@ public class HidDeviceApp implements KeyboardReport.KeyboardDataSender {
                 }
 
                 @Override
-                @BinderThread
+                @WorkerThread
                 public void onConnectionStateChanged(BluetoothDevice device, int state) {
                     super.onConnectionStateChanged(device, state);
                     HidDeviceApp.this.onConnectionStateChanged(device, state);
                 }
 
                 @Override
-                @BinderThread
+                @WorkerThread
                 public void onGetReport(
                         BluetoothDevice device, byte type, byte id, int bufferSize) {
                     super.onGetReport(device, type, id, bufferSize);
-                    if (inputHost != null) {
+                    @Nullable HidTransport host = getTransport(device);
+                    if (host != null) {
                         if (type != BluetoothHidDevice.REPORT_TYPE_INPUT) {
-                            inputHost.reportError(
-                                    device, BluetoothHidDevice.ERROR_RSP_UNSUPPORTED_REQ);
-                        } else if (!replyReport(device, type, id)) {
-                            inputHost.reportError(
-                                    device, BluetoothHidDevice.ERROR_RSP_INVALID_RPT_ID);
+                            host.reportError(BluetoothHidDevice.ERROR_RSP_UNSUPPORTED_REQ);
+                        } else if (!replyReport(host, type, id)) {
+                            host.reportError(BluetoothHidDevice.ERROR_RSP_INVALID_RPT_ID);
                         }
                     }
                 }
 
                 @Override
-                @BinderThread
+                @WorkerThread
+                public void onSetProtocol(BluetoothDevice device, byte protocol) {
+                    super.onSetProtocol(device, protocol);
+                    bootProtocol = protocol == BluetoothHidDevice.PROTOCOL_BOOT_MODE;
+                }
+
+                @Override
+                @WorkerThread
                 public void onSetReport(BluetoothDevice device, byte type, byte id, byte[] data) {
                     super.onSetReport(device, type, id, data);
-                    if (inputHost != null) {
-                        inputHost.reportError(device, BluetoothHidDevice.ERROR_RSP_SUCCESS);
+                    @Nullable HidTransport host = getTransport(device);
+                    if (host != null) {
+                        host.reportError(BluetoothHidDevice.ERROR_RSP_SUCCESS);
                     }
                 }
             };
@@ -116,27 +138,37 @@ public class HidDeviceApp implements KeyboardReport.KeyboardDataSender {
     private BluetoothHidDevice inputHost;
     private boolean registered;
 
+    /**
+     * @param callbackExecutor Executor that runs the HID Device callbacks, e.g. the
+     *                         {@link HidEventLoop}.
+     */
+    HidDeviceApp(Executor callbackExecutor) {
+        this.callbackExecutor = checkNotNull(callbackExecutor);
+    }
+
     /**
      * Register the HID Device's SDP record.
      *
      * @param inputHost Interface for managing the paired HID Host devices and sending the data.
      */
-    @MainThread
+    @WorkerThread
     void registerApp(BluetoothProfile inputHost) {
         this.inputHost = checkNotNull((BluetoothHidDevice) inputHost);
         this.inputHost.registerApp(
-                Constants.SDP_RECORD, null, Constants.QOS_OUT, Runnable::run, callback);
+                Constants.SDP_RECORD, null, Constants.QOS_OUT, callbackExecutor, callback);
     }
 
     /**
      * Unregister the HID Device's SDP record.
      */
-    @MainThread
+    @WorkerThread
     void unregisterApp() {
         if (inputHost != null && registered) {
             inputHost.unregisterApp();
         }
         inputHost = null;
+        transport = null;
+        deviceTransport = null;
     }
 
     /**
@@ -144,7 +176,7 @@ public class HidDeviceApp implements KeyboardReport.KeyboardDataSender {
      *
      * @param listener Callback that will receive the new device connection state.
      */
-    @MainThread
+    @WorkerThread
     void registerDeviceListener(DeviceStateListener listener) {
         deviceStateListener = checkNotNull(listener);
     }
@@ -152,7 +184,7 @@ public class HidDeviceApp implements KeyboardReport.KeyboardDataSender {
     /**
      * Stop listening for device connection state changes.
      */
-    @MainThread
+    @WorkerThread
     void unregisterDeviceListener() {
         deviceStateListener = null;
     }
@@ -162,9 +194,53 @@ public class HidDeviceApp implements KeyboardReport.KeyboardDataSender {
      *
      * @param device New device or {@code null} if we should stop sending any data.
      */
-    @MainThread
+    @WorkerThread
     public void setDevice(@Nullable BluetoothDevice device) {
-        this.device = device;
+        setTransport(device != null ? getTransport(device) : null);
+    }
+
+    /**
+     * Send all data over the transport, instead of the Bluetooth connection set with
+     * {@link #setDevice}.
+     *
+     * @param transport New transport or {@code null} if we should stop sending any data.
+     */
+    void setTransport(@Nullable HidTransport transport) {
+        if (transport != this.transport) {
+            // Every host starts in the report protocol.
+            bootProtocol = false;
+        }
+        this.transport = transport;
+    }
+
+    /**
+     * Check if there is a transport to send the data over.
+     *
+     * @return {@code true} if the data is sent, {@code false} if it is discarded.
+     */
+    boolean hasTransport() {
+        return transport != null;
+    }
+
+    /**
+     * Check if the link of the transport dropped, even though the disconnection wasn't reported
+     * yet.
+     *
+     * @return {@code true} if there is a transport whose HID Host isn't connected anymore.
+     */
+    boolean isTransportLost() {
+        @Nullable HidTransport host = transport;
+        return host != null && !host.isConnected();
+    }
+
+    /**
+     * Check if the HID Host switched to the boot protocol, in which it only understands the boot
+     * keyboard report.
+     *
+     * @return {@code true} if only boot keyboard reports should be sent.
+     */
+    boolean isBootProtocol() {
+        return bootProtocol;
     }
 
     @Override
@@ -173,59 +249,141 @@ public class HidDeviceApp implements KeyboardReport.KeyboardDataSender {
             int modifier, int key1, int key2, int key3, int key4, int key5, int key6) {
         // Store the current values in case the host will try to read them with a GET_REPORT call.
         byte[] report = keyboardReport.setValue(modifier, key1, key2, key3, key4, key5, key6);
-        if (inputHost != null && device != null) {
-            inputHost.sendReport(device, Constants.ID_KEYBOARD, report);
-        }
+        send(Constants.ID_KEYBOARD, report);
     }
 
-    @BinderThread
-    private void onConnectionStateChanged(BluetoothDevice device, int state) {
-        mainThreadHandler.post(() -> onDeviceStateChanged(device, state));
+    /**
+     * Send a keyboard report that was packed with {@link KeyboardReport#pack}.
+     *
+     * @param packedReport Packed keyboard report.
+     * @return {@code true} if the transport accepted the report, {@code false} if it rejected it or
+     * there is no transport.
+     */
+    @WorkerThread
+    boolean sendKeyboard(long packedReport) {
+        return sendReport(Constants.ID_KEYBOARD, packedReport);
     }
 
-    @BinderThread
-    private void onAppStatusChanged(boolean registered) {
-        if (!registered) {
-            mainThreadHandler.post(this::onAppUnregistered);
-        }
+    /**
+     * Send a packed report of any ID, e.g. one that was packed with {@link MouseReport#pack}.
+     *
+     * @param id           Report ID.
+     * @param packedReport Packed report.
+     * @return {@code true} if the transport accepted the report, {@code false} if it rejected it or
+     * there is no transport.
+     */
+    @WorkerThread
+    boolean sendReport(byte id, long packedReport) {
+        return sendReport(id, packedReport, 0);
     }
 
-    @BinderThread
-    private boolean replyReport(BluetoothDevice device, byte type, byte id) {
-        @Nullable byte[] report = getReport(id);
-        if (report == null) {
-            return false;
-        }
+    /**
+     * Send a report that is packed into two {@code long}s, e.g. a
+     * {@link KeyboardBitmapReport}.
+     *
+     * @param id               Report ID.
+     * @param packedReport     First eight bytes of the packed report.
+     * @param packedReportHigh Remaining bytes of the packed report.
+     * @return {@code true} if the transport accepted the report, {@code false} if it rejected it or
+     * there is no transport.
+     */
+    @WorkerThread
+    boolean sendReport(byte id, long packedReport, long packedReportHigh) {
+        // Store the current values in case the host will try to read them with a GET_REPORT call.
+        byte[] report =
+                checkNotNull(getInputReport(id)).setValue(packedReport, packedReportHigh);
+        return send(id, report);
+    }
 
-        if (inputHost != null) {
-            inputHost.replyReport(device, type, id, report);
+    /**
+     * Record all reports that the transport accepts, or stop recording.
+     *
+     * @param recorder Log to append the reports to, or {@code null} to stop recording.
+     */
+    void setRecorder(@Nullable ReportRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    private boolean send(byte id, byte[] report) {
+        @Nullable HidTransport host = transport;
+        @Nullable ReportRecorder currentRecorder = recorder;
+        long sentAt = currentRecorder != null ? System.nanoTime() : 0;
+        boolean sent = host != null && host.sendReport(id, report);
+        if (sent && currentRecorder != null) {
+            currentRecorder.record(sentAt, id, report);
         }
-        return true;
+        return sent;
     }
 
-    @BinderThread
+    /**
+     * Get the transport to the device over the registered profile proxy, reusing the current one or
+     * the last created one if it belongs to the same device, so requests don't allocate.
+     */
     @Nullable
-    private byte[] getReport(byte id) {
-        // fall out
-        if (id == Constants.ID_KEYBOARD) {
-            return keyboardReport.getReport();
+    private HidTransport getTransport(BluetoothDevice device) {
+        @Nullable BluetoothHidDevice proxy = inputHost;
+        if (proxy == null) {
+            return null;
         }
-
-        Log.e(TAG, "Invalid report ID requested: " + id);
-        return null;
+        @Nullable HidTransport current = transport;
+        if (current instanceof BluetoothHidTransport
+                && ((BluetoothHidTransport) current).isFor(proxy, device)) {
+            return current;
+        }
+        @Nullable BluetoothHidTransport last = deviceTransport;
+        if (last == null || !last.isFor(proxy, device)) {
+            last = new BluetoothHidTransport(proxy, device);
+            deviceTransport = last;
+        }
+        return last;
     }
 
-    @MainThread
-    private void onDeviceStateChanged(BluetoothDevice device, int state) {
+    @WorkerThread
+    private void onConnectionStateChanged(BluetoothDevice device, int state) {
         if (deviceStateListener != null) {
             deviceStateListener.onDeviceStateChanged(device, state);
         }
     }
 
-    @MainThread
-    private void onAppUnregistered() {
-        if (deviceStateListener != null) {
-            deviceStateListener.onAppUnregistered();
+    @WorkerThread
+    private void onAppStatusChanged(boolean registered) {
+        @Nullable DeviceStateListener listener = deviceStateListener;
+        if (listener == null) {
+            return;
+        }
+        if (registered) {
+            listener.onAppRegistered();
+        } else {
+            listener.onAppUnregistered();
         }
     }
+
+    @WorkerThread
+    private boolean replyReport(HidTransport host, byte type, byte id) {
+        @Nullable InputReport report = getInputReport(id);
+        if (report == null) {
+            Log.e(TAG, "Invalid report ID requested: " + id);
+            return false;
+        }
+
+        report.replyTo(host, type, id);
+        return true;
+    }
+
+    @Nullable
+    private InputReport getInputReport(byte id) {
+        switch (id) {
+            case Constants.ID_KEYBOARD:
+                return keyboardReport;
+            case Constants.ID_MOUSE:
+                return mouseReport;
+            case Constants.ID_CONSUMER:
+                return consumerReport;
+            case Constants.ID_KEYBOARD_BITMAP:
+                return keyboardBitmapReport;
+            default:
+                return null;
+        }
+    }
+
 }
@@ -20,14 +20,19 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothHidDevice;
 import android.bluetooth.BluetoothProfile;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.os.ParcelUuid;
+import android.os.Parcelable;
 import android.util.Log;
 
 import androidx.annotation.MainThread;
+import androidx.annotation.WorkerThread;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import javax.annotation.Nullable;
 
@@ -45,7 +50,8 @@ public class HidDeviceProfile {
             ParcelUuid.fromString("00001124-0000-1000-8000-00805f9b34fb");
 
     /**
-     * Used to call back when a profile proxy connection state has changed.
+     * Used to call back when a profile proxy connection state has changed. The callbacks arrive on
+     * the thread of the executor that {@link HidDeviceProfile} was created with.
      */
     public interface ServiceStateListener {
         /**
@@ -53,31 +59,86 @@ public class HidDeviceProfile {
          *
          * @param proxy Profile proxy object or {@code null} if the service was disconnected.
          */
-        @MainThread
         void onServiceStateChanged(BluetoothProfile proxy);
     }
 
+    @Nullable
     private final BluetoothAdapter bluetoothAdapter;
+    private final Executor callbackExecutor;
     @Nullable
     private ServiceStateListener serviceStateListener;
     @Nullable
     private BluetoothHidDevice service;
 
-    HidDeviceProfile() {
-        this.bluetoothAdapter = checkNotNull(BluetoothAdapter.getDefaultAdapter());
+    private final ConnectionStateTable<BluetoothDevice> connectionStates =
+            new ConnectionStateTable<>(BluetoothDevice::getAddress);
+
+    /**
+     * Result of {@link #isProfileSupported} by device address, until the UUIDs of the device
+     * change.
+     */
+    private final ProfileSupportCache profileSupport = new ProfileSupportCache();
+    /** Context that receives the UUID changes, the results are only cached while it is set. */
+    @Nullable
+    private volatile Context receiverContext;
+
+    /**
+     * Forgets the cached profile support of a device once its services were discovered again and
+     * the new UUIDs answer differently.
+     */
+    private final BroadcastReceiver uuidReceiver =
+            new BroadcastReceiver() {
+                @Override
+                @MainThread
+                public void onReceive(Context context, Intent intent) {
+                    @Nullable BluetoothDevice device =
+                            intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                    @Nullable Parcelable[] uuids =
+                            intent.getParcelableArrayExtra(BluetoothDevice.EXTRA_UUID);
+                    if (device != null && uuids != null) {
+                        profileSupport.onUuidsChanged(device.getAddress(), checkUuids(uuids));
+                    }
+                }
+            };
+
+    /**
+     * @param callbackExecutor Executor that manages the profile, e.g. the {@link HidEventLoop}.
+     */
+    HidDeviceProfile(Executor callbackExecutor) {
+        this(checkNotNull(BluetoothAdapter.getDefaultAdapter()), callbackExecutor);
+    }
+
+    /**
+     * @param bluetoothAdapter Adapter to get the profile proxy from, or {@code null} if the HID
+     *                         Device is attached to a different {@link HidTransport} and never
+     *                         manages any Bluetooth devices.
+     * @param callbackExecutor Executor that manages the profile and delivers the service state
+     *                         callbacks.
+     */
+    HidDeviceProfile(@Nullable BluetoothAdapter bluetoothAdapter, Executor callbackExecutor) {
+        this.bluetoothAdapter = bluetoothAdapter;
+        this.callbackExecutor = checkNotNull(callbackExecutor);
     }
 
     /**
-     * Check if a device supports HID Host profile.
+     * Check if a device supports HID Host profile. The result is cached until the UUIDs of the
+     * device change.
      *
      * @param device Device to check.
      * @return {@code true} if the HID Host profile is supported, {@code false} otherwise.
      */
     public boolean isProfileSupported(BluetoothDevice device) {
+        if (receiverContext == null) {
+            return checkUuids(device.getUuids());
+        }
+        return profileSupport.isSupported(
+                device.getAddress(), address -> checkUuids(device.getUuids()));
+    }
+
+    private static boolean checkUuids(@Nullable Parcelable[] uuidArray) {
         // If a device reports itself as a HID Device, then it isn't a HID Host.
-        ParcelUuid[] uuidArray = device.getUuids();
         if (uuidArray != null) {
-            for (ParcelUuid uuid : uuidArray) {
+            for (Parcelable uuid : uuidArray) {
                 if (HID_UUID.equals(uuid) || HOGP_UUID.equals(uuid)) {
                     return false;
                 }
@@ -92,20 +153,24 @@ public class HidDeviceProfile {
      * @param context  Context that is required to establish the service connection.
      * @param listener Callback that will receive the profile proxy object.
      */
-    @MainThread
+    @WorkerThread
     void registerServiceListener(Context context, ServiceStateListener listener) {
         context = checkNotNull(context).getApplicationContext();
         serviceStateListener = checkNotNull(listener);
-        bluetoothAdapter.getProfileProxy(
-                context, new ServiceListener(), BluetoothProfile.HID_DEVICE);
+        if (bluetoothAdapter != null) {
+            receiverContext = context;
+            context.registerReceiver(uuidReceiver, new IntentFilter(BluetoothDevice.ACTION_UUID));
+            bluetoothAdapter.getProfileProxy(
+                    context, new ServiceListener(), BluetoothProfile.HID_DEVICE);
+        }
     }
 
     /**
      * Close the profile service connection.
      */
-    @MainThread
+    @WorkerThread
     void unregisterServiceListener() {
-        if (service != null) {
+        if (service != null && bluetoothAdapter != null) {
             try {
                 bluetoothAdapter.closeProfileProxy(BluetoothProfile.HID_DEVICE, service);
             } catch (Throwable t) {
@@ -113,32 +178,55 @@ public class HidDeviceProfile {
             }
             service = null;
         }
+        connectionStates.clear();
+        @Nullable Context context = receiverContext;
+        if (context != null) {
+            receiverContext = null;
+            context.unregisterReceiver(uuidReceiver);
+        }
+        profileSupport.clear();
         serviceStateListener = null;
     }
 
     /**
-     * Examine the device for current connection status.
+     * Examine the device for current connection status. This is answered from the local
+     * connection state table without a binder call.
      *
      * @param device Remote Bluetooth device to examine.
      * @return A Bluetooth profile connection state.
      */
     public int getConnectionState(BluetoothDevice device) {
-        if (service == null) {
-            return BluetoothProfile.STATE_DISCONNECTED;
+        return connectionStates.getState(device);
+    }
+
+    /**
+     * Record a connection state change that was reported by the HID Device callback.
+     *
+     * @param device Device whose connection state changed.
+     * @param state  New connection state, see {@link BluetoothProfile#EXTRA_STATE}.
+     */
+    @WorkerThread
+    void onConnectionStateChanged(BluetoothDevice device, int state) {
+        if (service != null) {
+            connectionStates.update(device, state);
         }
-        return service.getConnectionState(checkNotNull(device));
     }
 
     /**
      * Initiate the connection to the remote HID Host device.
      *
      * @param device Device to connect to.
+     * @return {@code true} if the connection was requested, {@code false} if there is no service,
+     * the device doesn't support the profile or the request failed.
      */
-    @MainThread
-    void connect(BluetoothDevice device) {
-        if (service != null && isProfileSupported(device)) {
-            service.connect(device);
+    @WorkerThread
+    boolean connect(BluetoothDevice device) {
+        if (service != null && isProfileSupported(device) && service.connect(device)) {
+            // Record the request right away, so it isn't repeated before the callback arrives.
+            connectionStates.update(device, BluetoothProfile.STATE_CONNECTING);
+            return true;
         }
+        return false;
     }
 
     /**
@@ -146,10 +234,10 @@ public class HidDeviceProfile {
      *
      * @param device Device to disconnect from.
      */
-    @MainThread
+    @WorkerThread
     void disconnect(BluetoothDevice device) {
-        if (service != null && isProfileSupported(device)) {
-            service.disconnect(device);
+        if (service != null && isProfileSupported(device) && service.disconnect(device)) {
+            connectionStates.update(device, BluetoothProfile.STATE_DISCONNECTING);
         }
     }
 
@@ -158,12 +246,10 @@ public class HidDeviceProfile {
      *
      * @return Connected devices list.
      */
-    @MainThread
+    @WorkerThread
     List<BluetoothDevice> getConnectedDevices() {
-        if (service == null) {
-            return new ArrayList<>();
-        }
-        return service.getConnectedDevices();
+        return connectionStates.getDevicesMatchingStates(
+                new int[]{BluetoothProfile.STATE_CONNECTED});
     }
 
     /**
@@ -172,30 +258,60 @@ public class HidDeviceProfile {
      * @param states List of states we are interested in.
      * @return List of devices that match one of the states.
      */
-    @MainThread
+    @WorkerThread
     List<BluetoothDevice> getDevicesMatchingConnectionStates(int[] states) {
-        if (service == null) {
-            return new ArrayList<>();
+        return connectionStates.getDevicesMatchingStates(states);
+    }
+
+    /**
+     * Replace the local connection state table with the states known to the service. This is the
+     * only time the states are fetched over binder. They are collected first, so the table never
+     * looks empty while they are fetched.
+     */
+    @WorkerThread
+    private void reconcileConnectionStates(BluetoothHidDevice service) {
+        ConnectionStateTable<BluetoothDevice> fetched =
+                new ConnectionStateTable<>(BluetoothDevice::getAddress);
+        for (int state : new int[]{
+                BluetoothProfile.STATE_CONNECTED,
+                BluetoothProfile.STATE_CONNECTING,
+                BluetoothProfile.STATE_DISCONNECTING}) {
+            for (BluetoothDevice device
+                    : service.getDevicesMatchingConnectionStates(new int[]{state})) {
+                fetched.update(device, state);
+            }
         }
-        return service.getDevicesMatchingConnectionStates(states);
+        connectionStates.replaceWith(fetched);
     }
 
     private final class ServiceListener implements BluetoothProfile.ServiceListener {
         @Override
         @MainThread
         public void onServiceConnected(int profile, BluetoothProfile proxy) {
+            callbackExecutor.execute(() -> onConnected(proxy));
+        }
+
+        @Override
+        @MainThread
+        public void onServiceDisconnected(int profile) {
+            callbackExecutor.execute(this::onDisconnected);
+        }
+
+        @WorkerThread
+        private void onConnected(BluetoothProfile proxy) {
             service = (BluetoothHidDevice) proxy;
             if (serviceStateListener != null) {
+                reconcileConnectionStates(service);
                 serviceStateListener.onServiceStateChanged(service);
             } else {
                 bluetoothAdapter.closeProfileProxy(BluetoothProfile.HID_DEVICE, proxy);
             }
         }
 
-        @Override
-        @MainThread
-        public void onServiceDisconnected(int profile) {
+        @WorkerThread
+        private void onDisconnected() {
             service = null;
+            connectionStates.clear();
             if (serviceStateListener != null) {
                 serviceStateListener.onServiceStateChanged(null);
             }
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.bluetooth;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thread that runs the HID Device callbacks and the connection management, so they neither wait
+ * for the UI nor delay it. The app observes the results on the main thread.
+ */
+final class HidEventLoop implements EventLoop {
+
+    private final Handler handler;
+
+    HidEventLoop() {
+        HandlerThread thread =
+                new HandlerThread("HidEventLoop", Process.THREAD_PRIORITY_FOREGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (!handler.post(command)) {
+            throw new RejectedExecutionException("HID event loop is not running");
+        }
+    }
+
+    @Override
+    public void executeDelayed(Runnable command, long delayMillis) {
+        if (!handler.postDelayed(command, delayMillis)) {
+            throw new RejectedExecutionException("HID event loop is not running");
+        }
+    }
+
+    @Override
+    public void cancel(Runnable command) {
+        handler.removeCallbacks(command);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.bluetooth;
+
+/**
+ * Link to a single HID Host that the HID Device's reports are sent over. This keeps the send path
+ * independent of the Android Bluetooth stack.
+ */
+public interface HidTransport {
+
+    /**
+     * Send an input report to the HID Host.
+     *
+     * @param id   Report ID, see the report descriptor.
+     * @param data Report data, only valid for the duration of the call.
+     * @return {@code true} if the report was accepted, {@code false} otherwise.
+     */
+    boolean sendReport(int id, byte[] data);
+
+    /**
+     * Answer a GET_REPORT request of the HID Host.
+     *
+     * @param type Requested report type.
+     * @param id   Requested report ID.
+     * @param data Report data, only valid for the duration of the call.
+     * @return {@code true} if the reply was accepted, {@code false} otherwise.
+     */
+    boolean replyReport(byte type, byte id, byte[] data);
+
+    /**
+     * Answer a request of the HID Host with an error, or with success if the request doesn't
+     * expect any data.
+     *
+     * @param error Error code, one of the {@code BluetoothHidDevice.ERROR_RSP_*} constants.
+     * @return {@code true} if the reply was accepted, {@code false} otherwise.
+     */
+    boolean reportError(byte error);
+
+    /**
+     * Check if the link to the HID Host is still up. After a report was not accepted, this tells a
+     * rejected report from a link that dropped before the disconnection was reported.
+     *
+     * @return {@code true} if the HID Host is connected, {@code false} if the link dropped.
+     */
+    default boolean isConnected() {
+        return true;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.bluetooth;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Current value of an input report that fits into one or two packed {@code long}s, where byte
+ * {@code i} of the binary report is stored in bits {@code 8 * i} to {@code 8 * i + 7}, continuing
+ * in the second {@code long} after the first eight bytes.
+ *
+ * <p>The report is set by the sending thread and read by the HID event loop when it answers
+ * GET_REPORT requests. The current value is published in volatile {@code long}s guarded by a
+ * sequence counter, so readers always see a complete report without locking or allocating, while
+ * the sending thread keeps its own buffer.
+ */
+abstract class InputReport {
+
+    /** Buffer for the report that is being sent, only accessed by the sending thread. */
+    private final byte[] data;
+
+    /** Buffer for GET_REPORT replies, so they neither allocate nor touch the sending buffer. */
+    private final byte[] replyBuffer;
+
+    /** Incremented before and after every update, so it is odd while the report is changing. */
+    private volatile int sequence;
+
+    /** Last report that was set. */
+    private volatile long currentReport;
+    private volatile long currentReportHigh;
+
+    /**
+     * @param length Length of the binary report, at most 16 bytes.
+     */
+    InputReport(int length) {
+        checkArgument(length > 0 && length <= 2 * Long.BYTES, "invalid report length");
+        data = new byte[length];
+        replyBuffer = new byte[length];
+    }
+
+    /**
+     * Store a packed report.
+     *
+     * @param report Packed report.
+     * @return Binary report, only valid until the next call.
+     */
+    byte[] setValue(long report) {
+        return setValue(report, 0);
+    }
+
+    /**
+     * Store a report that is packed into two {@code long}s.
+     *
+     * @param report     First eight bytes of the packed report.
+     * @param reportHigh Remaining bytes of the packed report.
+     * @return Binary report, only valid until the next call.
+     */
+    @SuppressWarnings("NonAtomicVolatileUpdate") // Only the sending thread updates the report.
+    byte[] setValue(long report, long reportHigh) {
+        sequence++;
+        currentReport = report;
+        currentReportHigh = reportHigh;
+        sequence++;
+        unpack(report, reportHigh, data);
+        return data;
+    }
+
+    /**
+     * Copy the last report that was set. This can be called from any thread.
+     *
+     * @param report Buffer that receives the binary report, as long as the report.
+     */
+    void getReport(byte[] report) {
+        long low;
+        long high;
+        int start;
+        do {
+            start = sequence;
+            low = currentReport;
+            high = currentReportHigh;
+        } while ((start & 1) != 0 || start != sequence);
+        unpack(low, high, report);
+    }
+
+    /**
+     * Reply to a GET_REPORT request with the last report that was set.
+     *
+     * @param host Transport to the HID Host that requested the report.
+     * @param type Requested report type.
+     * @param id   Requested report ID.
+     */
+    void replyTo(HidTransport host, byte type, byte id) {
+        // Only concurrent replies wait for each other here, the sending thread is never blocked.
+        synchronized (replyBuffer) {
+            getReport(replyBuffer);
+            host.replyReport(type, id, replyBuffer);
+        }
+    }
+
+    private static void unpack(long packedReport, long packedReportHigh, byte[] report) {
+        for (int i = 0; i < report.length; i++) {
+            report[i] = (byte) (i < Long.BYTES
+                    ? packedReport >>> (i * 8)
+                    : packedReportHigh >>> ((i - Long.BYTES) * 8));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.bluetooth;
+
+/**
+ * Helper class to store the state of the N-key rollover keyboard and retrieve the binary report.
+ * Instead of six key slots, the report holds one bit for every key, so any set of distinct keys can
+ * be pressed at once.
+ */
+public class KeyboardBitmapReport extends InputReport {
+
+    /**
+     * Highest scan code that fits into the bitmap.
+     */
+    public static final int MAX_KEY = 0x67;
+
+    /**
+     * Length of the binary report: modifier byte and one bit for every scan code up to
+     * {@link #MAX_KEY}.
+     */
+    public static final int REPORT_LENGTH = 1 + (MAX_KEY + 1) / 8;
+
+    KeyboardBitmapReport() {
+        super(REPORT_LENGTH);
+    }
+
+    /**
+     * Pack the first eight bytes of a bitmap report, see {@link #packHigh} for the rest.
+     *
+     * @param modifier Modifier keys bit mask.
+     * @param keys     Bit {@code i} is set if the key with scan code {@code i} is pressed.
+     * @return First part of the packed report.
+     */
+    static long packLow(int modifier, long keys) {
+        return (modifier & 0xFFL) | keys << 8;
+    }
+
+    /**
+     * Pack the remaining bytes of a bitmap report.
+     *
+     * @param keys     Bit {@code i} is set if the key with scan code {@code i} is pressed.
+     * @param keysHigh Bit {@code i} is set if the key with scan code {@code 64 + i} is pressed.
+     * @return Second part of the packed report.
+     */
+    static long packHigh(long keys, long keysHigh) {
+        return keys >>> 56 | (keysHigh & ((1L << (MAX_KEY - 63)) - 1)) << 8;
+    }
+}
@@ -16,33 +16,70 @@
 
 package de.dbeppler.demo.bluetooth;
 
-import java.util.Arrays;
+import androidx.annotation.WorkerThread;
+
+import de.dbeppler.demo.metrics.LatencyHistogram;
 
 /**
  * Helper class to store the keyboard state and retrieve the binary report.
  */
-public class KeyboardReport {
+public class KeyboardReport extends InputReport {
+
+    /**
+     * Length of the binary keyboard report: modifier byte, reserved byte and six scan codes.
+     */
+    public static final int REPORT_LENGTH = 8;
+
+    /**
+     * Number of simultaneously pressed keys that fit into the report.
+     */
+    public static final int MAX_KEYS = 6;
+
+    /**
+     * Scan code that fills all key slots when more keys are pressed than fit into the report.
+     */
+    public static final int ERROR_ROLL_OVER = 0x01;
 
-    private final byte[] keyboardData = "M0ABCDEF".getBytes();
+    /** All six key slots set to {@link #ERROR_ROLL_OVER}, packed one byte per slot. */
+    static final long ROLL_OVER_SLOTS = 0x010101010101L;
 
     KeyboardReport() {
-        Arrays.fill(keyboardData, (byte) 0);
+        super(REPORT_LENGTH);
     }
 
     byte[] setValue(int modifier, int key1, int key2, int key3, int key4, int key5, int key6) {
-        keyboardData[0] = (byte) modifier;
-        keyboardData[1] = 0;
-        keyboardData[2] = (byte) key1;
-        keyboardData[3] = (byte) key2;
-        keyboardData[4] = (byte) key3;
-        keyboardData[5] = (byte) key4;
-        keyboardData[6] = (byte) key5;
-        keyboardData[7] = (byte) key6;
-        return keyboardData;
+        return setValue(pack(modifier, key1, key2, key3, key4, key5, key6));
     }
 
-    byte[] getReport() {
-        return keyboardData;
+    /**
+     * Pack a keyboard report into a single {@code long}, so it can be queued without allocating.
+     * Byte {@code i} of the binary report is stored in bits {@code 8 * i} to {@code 8 * i + 7}.
+     *
+     * @return Packed report.
+     */
+    static long pack(int modifier, int key1, int key2, int key3, int key4, int key5, int key6) {
+        return (modifier & 0xFFL)
+                | (key1 & 0xFFL) << 16
+                | (key2 & 0xFFL) << 24
+                | (key3 & 0xFFL) << 32
+                | (key4 & 0xFFL) << 40
+                | (key5 & 0xFFL) << 48
+                | (key6 & 0xFFL) << 56;
+    }
+
+    /**
+     * Pack a binary keyboard report, see {@link #pack(int, int, int, int, int, int, int)}.
+     *
+     * @param reports Array that contains the binary report.
+     * @param offset  Index of the first byte of the report.
+     * @return Packed report.
+     */
+    static long pack(byte[] reports, int offset) {
+        long report = 0;
+        for (int i = REPORT_LENGTH - 1; i >= 0; i--) {
+            report = report << 8 | (reports[offset + i] & 0xFFL);
+        }
+        return report;
     }
 
     /**
@@ -62,5 +99,94 @@ public class KeyboardReport {
          * @param key6     Scan code of the 6th button that is currently pressed (or 0 if none).
          */
         void sendKeyboard(int modifier, int key1, int key2, int key3, int key4, int key5, int key6);
+
+        /**
+         * Send a sequence of binary keyboard reports to the connected HID Host device, see
+         * {@link #REPORT_LENGTH} for the layout of a single report.
+         *
+         * @param reports Array that contains the binary reports.
+         * @param offset  Index of the first byte of the first report.
+         * @param count   Number of reports to send.
+         */
+        default void sendKeyboardReports(byte[] reports, int offset, int count) {
+            for (int i = 0; i < count; i++) {
+                int start = offset + i * REPORT_LENGTH;
+                sendKeyboard(
+                        reports[start] & 0xFF,
+                        reports[start + 2] & 0xFF,
+                        reports[start + 3] & 0xFF,
+                        reports[start + 4] & 0xFF,
+                        reports[start + 5] & 0xFF,
+                        reports[start + 6] & 0xFF,
+                        reports[start + 7] & 0xFF);
+            }
+        }
+
+        /**
+         * Check if {@link #sendKeyboardBitmap} reaches the HID Host as an N-key rollover report.
+         * Otherwise, it falls back to the boot keyboard report that only holds six keys, e.g.
+         * because the host switched to the boot protocol.
+         *
+         * @return {@code true} if any number of keys can be pressed at once.
+         */
+        default boolean isKeyboardBitmapSupported() {
+            return false;
+        }
+
+        /**
+         * Send Keyboard data with any number of simultaneously pressed keys to the connected HID
+         * Host device, see {@link KeyboardBitmapReport}. By default, this sends a boot keyboard
+         * report, which signals a rollover error if more than six keys are pressed.
+         *
+         * @param modifier Modifier keys bit mask (Ctrl/Shift/Alt/GUI).
+         * @param keys     Bit {@code i} is set if the key with scan code {@code i} is pressed.
+         * @param keysHigh Bit {@code i} is set if the key with scan code {@code 64 + i} is
+         *                 pressed, up to {@link KeyboardBitmapReport#MAX_KEY}.
+         */
+        default void sendKeyboardBitmap(int modifier, long keys, long keysHigh) {
+            // The slots are packed like a report, so nothing is allocated.
+            long slots = 0;
+            int count = 0;
+            for (int key = 0; key <= KeyboardBitmapReport.MAX_KEY; key++) {
+                long bits = key < Long.SIZE ? keys : keysHigh;
+                if ((bits & 1L << key) == 0) {
+                    continue;
+                }
+                if (count == MAX_KEYS) {
+                    slots = ROLL_OVER_SLOTS;
+                    break;
+                }
+                slots |= (long) key << (8 * count++);
+            }
+            sendKeyboard(modifier, (int) slots & 0xFF, (int) (slots >>> 8) & 0xFF,
+                    (int) (slots >>> 16) & 0xFF, (int) (slots >>> 24) & 0xFF,
+                    (int) (slots >>> 32) & 0xFF, (int) (slots >>> 40) & 0xFF);
+        }
+
+        /**
+         * Send Keyboard data once the deadline has passed, see {@link TimedKeyboardSender}. By
+         * default, the calling thread waits for the deadline and the jitter is recorded when
+         * {@link #sendKeyboard} returns. Senders with a queue hold the report back themselves and
+         * record the jitter when the HID Host got it, so the time in the queue isn't missed.
+         *
+         * @param deadline Value of {@link System#nanoTime()} at which the report is due.
+         * @param jitter   Histogram that records how late the report was sent.
+         * @param modifier Modifier keys bit mask (Ctrl/Shift/Alt/GUI).
+         * @param key1     Scan code of the 1st button that is currently pressed (or 0 if none).
+         * @param key2     Scan code of the 2nd button that is currently pressed (or 0 if none).
+         * @param key3     Scan code of the 3rd button that is currently pressed (or 0 if none).
+         * @param key4     Scan code of the 4th button that is currently pressed (or 0 if none).
+         * @param key5     Scan code of the 5th button that is currently pressed (or 0 if none).
+         * @param key6     Scan code of the 6th button that is currently pressed (or 0 if none).
+         * @throws InterruptedException if the thread was interrupted while waiting.
+         */
+        @WorkerThread
+        default void sendKeyboardAt(long deadline, LatencyHistogram jitter, int modifier,
+                int key1, int key2, int key3, int key4, int key5, int key6)
+                throws InterruptedException {
+            Deadlines.await(deadline, Deadlines.DEFAULT_SPIN_NANOS);
+            sendKeyboard(modifier, key1, key2, key3, key4, key5, key6);
+            jitter.record(System.nanoTime() - deadline);
+        }
     }
 }
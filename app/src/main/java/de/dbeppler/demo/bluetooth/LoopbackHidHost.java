@@ -0,0 +1,181 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.bluetooth;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * In-process HID Host that simulates a Bluetooth link, so the send path can be tested and measured
+ * without a device. Every report takes the configured latency plus a random jitter to be sent, and
+ * is rejected with the configured drop rate.
+ */
+public final class LoopbackHidHost implements HidTransport {
+
+    /**
+     * Receives the reports that arrived at the host.
+     */
+    public interface ReportListener {
+        /**
+         * Callback that receives a report on the sending thread.
+         *
+         * @param id   Report ID.
+         * @param data Report data, only valid for the duration of the call.
+         */
+        void onReport(int id, byte[] data);
+    }
+
+    private final long latencyNanos;
+    private final long jitterNanos;
+    private final double dropRate;
+    private final Random random;
+    @Nullable
+    private final ReportListener listener;
+
+    private final AtomicLong receivedReports = new AtomicLong();
+    private final AtomicLong droppedReports = new AtomicLong();
+
+    private LoopbackHidHost(Builder builder) {
+        this.latencyNanos = builder.latencyNanos;
+        this.jitterNanos = builder.jitterNanos;
+        this.dropRate = builder.dropRate;
+        this.random = new Random(builder.seed);
+        this.listener = builder.listener;
+    }
+
+    @Override
+    public boolean sendReport(int id, byte[] data) {
+        return deliver(id, data);
+    }
+
+    @Override
+    public boolean replyReport(byte type, byte id, byte[] data) {
+        return deliver(id, data);
+    }
+
+    @Override
+    public boolean reportError(byte error) {
+        return true;
+    }
+
+    /**
+     * @return Number of reports that arrived at the host.
+     */
+    public long getReceivedReports() {
+        return receivedReports.get();
+    }
+
+    /**
+     * @return Number of reports that were rejected to simulate a lossy link.
+     */
+    public long getDroppedReports() {
+        return droppedReports.get();
+    }
+
+    private boolean deliver(int id, byte[] data) {
+        long delay = latencyNanos;
+        if (jitterNanos > 0) {
+            delay += (long) (random.nextDouble() * jitterNanos);
+        }
+        if (delay > 0) {
+            Deadlines.awaitUninterruptibly(System.nanoTime() + delay, Deadlines.DEFAULT_SPIN_NANOS);
+        }
+
+        if (dropRate > 0 && random.nextDouble() < dropRate) {
+            droppedReports.incrementAndGet();
+            return false;
+        }
+        receivedReports.incrementAndGet();
+        if (listener != null) {
+            listener.onReport(id, data);
+        }
+        return true;
+    }
+
+    /**
+     * Builder for {@link LoopbackHidHost}. By default, reports arrive instantly and are never
+     * dropped.
+     */
+    public static final class Builder {
+
+        private long latencyNanos;
+        private long jitterNanos;
+        private double dropRate;
+        private long seed;
+        @Nullable
+        private ReportListener listener;
+
+        /**
+         * @param latency Time it takes to send every report.
+         * @param unit    Unit of the latency.
+         * @return This builder.
+         */
+        public Builder setLatency(long latency, TimeUnit unit) {
+            checkArgument(latency >= 0, "latency must not be negative");
+            latencyNanos = unit.toNanos(latency);
+            return this;
+        }
+
+        /**
+         * @param jitter Maximum random time that is added to the latency of every report.
+         * @param unit   Unit of the jitter.
+         * @return This builder.
+         */
+        public Builder setJitter(long jitter, TimeUnit unit) {
+            checkArgument(jitter >= 0, "jitter must not be negative");
+            jitterNanos = unit.toNanos(jitter);
+            return this;
+        }
+
+        /**
+         * @param dropRate Probability between 0 and 1 that a report is rejected.
+         * @return This builder.
+         */
+        public Builder setDropRate(double dropRate) {
+            checkArgument(dropRate >= 0 && dropRate <= 1, "drop rate must be between 0 and 1");
+            this.dropRate = dropRate;
+            return this;
+        }
+
+        /**
+         * @param seed Seed for the jitter and drop decisions, to make runs repeatable.
+         * @return This builder.
+         */
+        public Builder setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * @param listener Callback that will receive every report that arrived at the host.
+         * @return This builder.
+         */
+        public Builder setReportListener(@Nullable ReportListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public LoopbackHidHost build() {
+            return new LoopbackHidHost(this);
+        }
+    }
+}
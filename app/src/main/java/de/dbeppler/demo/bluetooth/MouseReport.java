@@ -0,0 +1,69 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.bluetooth;
+
+/**
+ * Helper class to store the pointer state and retrieve the binary report.
+ */
+public class MouseReport extends InputReport {
+
+    /**
+     * Length of the binary mouse report: button bits, X, Y and wheel movement.
+     */
+    public static final int REPORT_LENGTH = 4;
+
+    /**
+     * Largest movement on one axis that fits into a single report.
+     */
+    static final int MAX_MOVEMENT = 127;
+
+    MouseReport() {
+        super(REPORT_LENGTH);
+    }
+
+    /**
+     * Pack a mouse report into a single {@code long}.
+     *
+     * @param buttons Button bit mask.
+     * @param dx      Relative X movement, between -127 and 127.
+     * @param dy      Relative Y movement, between -127 and 127.
+     * @param wheel   Relative wheel movement, between -127 and 127.
+     * @return Packed report.
+     */
+    static long pack(int buttons, int dx, int dy, int wheel) {
+        return (buttons & 0xFFL)
+                | (dx & 0xFFL) << 8
+                | (dy & 0xFFL) << 16
+                | (wheel & 0xFFL) << 24;
+    }
+
+    /**
+     * Interface to send the pointer data with.
+     */
+    public interface PointerDataSender {
+        /**
+         * Send pointer data to the connected HID Host device. Movements that arrive faster than
+         * reports can be sent are added up.
+         *
+         * @param buttons Button bit mask (1 = primary, 2 = secondary, 4 = middle).
+         * @param dx      Relative X movement.
+         * @param dy      Relative Y movement.
+         * @param wheel   Relative wheel movement.
+         */
+        void sendPointer(int buttons, int dx, int dy, int wheel);
+    }
+}
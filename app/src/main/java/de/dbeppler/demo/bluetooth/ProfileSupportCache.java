@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.bluetooth;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Whether devices support the HID Host profile, keyed by device address, so the UUIDs of a device
+ * are only checked once. An entry is kept until a new service discovery of the device answers
+ * differently.
+ *
+ * <p>Safe to use from any thread.
+ */
+final class ProfileSupportCache {
+
+    private final Map<String, Boolean> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param address Device address.
+     * @param check   Checks the UUIDs of the device, called only if there is no cached result.
+     * @return {@code true} if the device supports the HID Host profile.
+     */
+    boolean isSupported(String address, Predicate<String> check) {
+        return entries.computeIfAbsent(address, check::test);
+    }
+
+    /**
+     * The services of the device were discovered again. Its result is dropped if the new UUIDs
+     * answer differently, so the next check reads them from the device.
+     *
+     * @param address   Device address.
+     * @param supported Whether the new UUIDs support the HID Host profile.
+     */
+    void onUuidsChanged(String address, boolean supported) {
+        entries.computeIfPresent(address, (key, cached) -> cached == supported ? cached : null);
+    }
+
+    /**
+     * Forget all results, e.g. when the UUID changes aren't received anymore.
+     */
+    void clear() {
+        entries.clear();
+    }
+}
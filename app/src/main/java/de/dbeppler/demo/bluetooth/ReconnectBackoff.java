@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.bluetooth;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Delays between attempts to reconnect to a HID Host: the first attempt is made right away, after
+ * that the delay doubles with every attempt up to a maximum, and after a fixed number of attempts
+ * reconnecting is given up. Only one thread may use an instance.
+ */
+final class ReconnectBackoff {
+
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final int maxAttempts;
+
+    private int attempts;
+
+    /**
+     * @param initialDelayMillis Delay after the first attempt.
+     * @param maxDelayMillis     Longest delay between two attempts.
+     * @param maxAttempts        Number of attempts before giving up.
+     */
+    ReconnectBackoff(long initialDelayMillis, long maxDelayMillis, int maxAttempts) {
+        checkArgument(initialDelayMillis > 0, "initial delay must be positive");
+        checkArgument(maxDelayMillis >= initialDelayMillis, "max delay must not be below initial");
+        checkArgument(maxAttempts > 0, "max attempts must be positive");
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Count an attempt that is about to be made.
+     *
+     * @return Time to wait for the attempt to succeed before making the next one, or {@code -1} if
+     * no attempt is left.
+     */
+    long nextDelayMillis() {
+        if (attempts == maxAttempts) {
+            return -1;
+        }
+        long delay = initialDelayMillis;
+        for (int i = 0; i < attempts && delay < maxDelayMillis; i++) {
+            // Stop at the maximum before doubling could overflow.
+            delay = delay > maxDelayMillis / 2 ? maxDelayMillis : delay << 1;
+        }
+        attempts++;
+        return delay;
+    }
+
+    /**
+     * @return Number of attempts that were made so far.
+     */
+    int getAttempts() {
+        return attempts;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.bluetooth;
+
+import de.dbeppler.demo.bluetooth.ReportDeliveryException.Reason;
+
+import com.google.common.util.concurrent.AbstractFuture;
+
+/**
+ * Future for a group of queued reports. It succeeds once the transport accepted all of them and
+ * fails with a {@link ReportDeliveryException} as soon as one of them didn't reach the HID Host.
+ * Reports that follow a failed one are still sent, so the key state on the host stays consistent.
+ */
+final class ReportBatch extends AbstractFuture<Void> {
+
+    /** Reports that still have to be sent, only accessed by the writer thread. */
+    private int remaining;
+
+    /**
+     * @param size Number of reports in the batch.
+     */
+    ReportBatch(int size) {
+        remaining = size;
+    }
+
+    /**
+     * Called by the writer thread when the transport accepted one of the reports.
+     */
+    void onReportSent() {
+        if (--remaining == 0) {
+            set(null);
+        }
+    }
+
+    /**
+     * Called when one of the reports didn't reach the HID Host.
+     *
+     * @param reason Reason why the report wasn't sent.
+     */
+    void fail(@Reason int reason) {
+        setException(new ReportDeliveryException(reason));
+    }
+}
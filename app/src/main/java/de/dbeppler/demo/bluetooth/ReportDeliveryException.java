@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.bluetooth;
+
+import androidx.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Reason why a report didn't reach the HID Host.
+ */
+public class ReportDeliveryException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({
+            Reason.NOT_CONNECTED,
+            Reason.REJECTED,
+            Reason.DROPPED,
+            Reason.CANCELLED
+    })
+    public @interface Reason {
+        /** There was no connected HID Host when the report was due. */
+        int NOT_CONNECTED = 0;
+        /** The transport didn't accept the report. */
+        int REJECTED = 1;
+        /** The report was discarded by the overflow policy of the full report queue. */
+        int DROPPED = 2;
+        /**
+         * The report was discarded because the sender was unregistered, or was connected to
+         * another host while reconnecting.
+         */
+        int CANCELLED = 3;
+    }
+
+    @Reason
+    private final int reason;
+
+    /**
+     * @param reason Reason why the report didn't reach the HID Host.
+     */
+    public ReportDeliveryException(@Reason int reason) {
+        super(describe(reason));
+        this.reason = reason;
+    }
+
+    /**
+     * @return Reason why the report didn't reach the HID Host.
+     */
+    @Reason
+    public int getReason() {
+        return reason;
+    }
+
+    private static String describe(@Reason int reason) {
+        switch (reason) {
+            case Reason.NOT_CONNECTED:
+                return "No HID Host connected";
+            case Reason.REJECTED:
+                return "Report rejected by the transport";
+            case Reason.DROPPED:
+                return "Report dropped from the full queue";
+            case Reason.CANCELLED:
+                return "Report cancelled";
+            default:
+                return "Unknown reason " + reason;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.bluetooth;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Token bucket that holds outgoing reports back until the negotiated QoS allows sending them. One
+ * token is one byte on the link; tokens arrive at the token rate and at most the bucket size is
+ * saved up while the link is idle.
+ *
+ * <p>The bucket is tracked as the theoretical time at which it would be empty, so the writer thread
+ * can compute exactly when the next report may go out and park until then instead of polling.
+ * Besides the writer thread, the event loop sends the release reports on resume through the same
+ * bucket, so the state is guarded and nobody waits while holding the lock.
+ */
+final class ReportPacer {
+
+    /**
+     * Source of the current time and a way to wait for a later one, so tests don't depend on the
+     * real clock.
+     */
+    interface Clock {
+        /**
+         * @return Current time like {@link System#nanoTime()}.
+         */
+        long nanoTime();
+
+        /**
+         * Wait until the time, or return right away if it passed already.
+         *
+         * @param deadline Time to wait for.
+         * @throws InterruptedException if the thread was interrupted while waiting.
+         */
+        void await(long deadline) throws InterruptedException;
+    }
+
+    /** Clock of {@link System#nanoTime()}. */
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void await(long deadline) throws InterruptedException {
+            // Pacing only has to keep the average rate, so don't spin for exact wake-ups.
+            Deadlines.await(deadline, 0);
+        }
+    };
+
+    private final long nanosPerToken;
+    private final long bucketNanos;
+    private final Clock clock;
+    private final Object lock = new Object();
+
+    /** Time at which all tokens that were handed out so far have been replenished. */
+    @GuardedBy("lock")
+    private long emptyUntil = Long.MIN_VALUE;
+
+    /**
+     * @param tokenRate  Tokens (bytes) per second.
+     * @param bucketSize Maximum number of tokens that can be saved up.
+     */
+    ReportPacer(int tokenRate, int bucketSize) {
+        this(tokenRate, bucketSize, SYSTEM_CLOCK);
+    }
+
+    /**
+     * @param tokenRate  Tokens (bytes) per second.
+     * @param bucketSize Maximum number of tokens that can be saved up.
+     * @param clock      Clock to measure and wait with.
+     */
+    @VisibleForTesting
+    ReportPacer(int tokenRate, int bucketSize, Clock clock) {
+        checkArgument(tokenRate > 0, "token rate must be positive");
+        checkArgument(bucketSize > 0, "bucket size must be positive");
+        this.nanosPerToken = TimeUnit.SECONDS.toNanos(1) / tokenRate;
+        this.bucketNanos = bucketSize * nanosPerToken;
+        this.clock = checkNotNull(clock);
+    }
+
+    /**
+     * Wait until the bucket holds enough tokens for the report, then take them.
+     *
+     * @param reportSize Size of the report on the link in bytes, including the report ID.
+     * @throws InterruptedException if the thread was interrupted while waiting.
+     */
+    void acquire(int reportSize) throws InterruptedException {
+        while (true) {
+            long sendAt;
+            synchronized (lock) {
+                sendAt = sendAt(reportSize);
+                if (clock.nanoTime() - sendAt >= 0) {
+                    emptyUntil += reportSize * nanosPerToken;
+                    return;
+                }
+            }
+            // Another thread may take the tokens meanwhile, so check again after waking up.
+            clock.await(sendAt);
+        }
+    }
+
+    /**
+     * Wait until the bucket holds enough tokens for a report of the given size, without taking
+     * them. This lets the writer thread decide which report to send only once it may be sent.
+     *
+     * @param reportSize Size of the report on the link in bytes, including the report ID.
+     * @throws InterruptedException if the writer thread was interrupted while waiting.
+     */
+    void awaitTokens(int reportSize) throws InterruptedException {
+        long sendAt;
+        synchronized (lock) {
+            sendAt = sendAt(reportSize);
+        }
+        clock.await(sendAt);
+    }
+
+    /**
+     * Take the tokens for a report that is sent right now.
+     *
+     * @param reportSize Size of the report on the link in bytes, including the report ID.
+     */
+    void consume(int reportSize) {
+        synchronized (lock) {
+            refill();
+            emptyUntil += reportSize * nanosPerToken;
+        }
+    }
+
+    @GuardedBy("lock")
+    private long sendAt(int reportSize) {
+        refill();
+        // A report that is larger than the bucket has to wait for the whole bucket.
+        return emptyUntil + Math.min(reportSize * nanosPerToken, bucketNanos) - bucketNanos;
+    }
+
+    @GuardedBy("lock")
+    private void refill() {
+        long now = clock.nanoTime();
+        if (emptyUntil == Long.MIN_VALUE || now - emptyUntil > 0) {
+            // The bucket ran full while the link was idle.
+            emptyUntil = now;
+        }
+    }
+}
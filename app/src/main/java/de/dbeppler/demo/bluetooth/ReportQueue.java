@@ -0,0 +1,446 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.bluetooth;
+
+import de.dbeppler.demo.bluetooth.HidDataSender.OverflowPolicy;
+import de.dbeppler.demo.bluetooth.ReportDeliveryException.Reason;
+import de.dbeppler.demo.metrics.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Bounded ring buffer of reports that were packed with e.g. {@link KeyboardReport#pack},
+ * together with the time each report was requested and queued, the batch it belongs to and its
+ * deadline, if any. Any number of threads may offer reports, a single writer thread takes them.
+ *
+ * <p>Several queues can share one lock and one not-empty condition, so the writer thread can wait
+ * for any of them, see {@link ReportScheduler}.
+ */
+final class ReportQueue {
+
+    private final byte defaultId;
+    private final byte[] ids;
+    private final long[] reports;
+    private final long[] reportsHigh;
+    private final long[] requestTimes;
+    private final long[] enqueueTimes;
+    private final ReportBatch[] batches;
+    private final long[] deadlines;
+    private final LatencyHistogram[] jitters;
+
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition notFull;
+
+    @GuardedBy("lock")
+    private int head;
+
+    @GuardedBy("lock")
+    private int count;
+
+    @GuardedBy("lock")
+    private int limit;
+
+    @GuardedBy("lock")
+    @OverflowPolicy
+    private int overflowPolicy = OverflowPolicy.BLOCK;
+
+    @GuardedBy("lock")
+    private long droppedReports;
+
+    /** Data of the report that was taken last, only accessed by the writer thread. */
+    private byte takenId;
+    private long takenReportHigh;
+    private long takenRequestTime;
+    private long takenEnqueueTime;
+    @Nullable
+    private ReportBatch takenBatch;
+    private long takenDeadline;
+    @Nullable
+    private LatencyHistogram takenJitter;
+
+    /**
+     * @param capacity Maximum number of reports that can be waiting for the writer.
+     */
+    ReportQueue(int capacity) {
+        this(capacity, Constants.ID_KEYBOARD, new ReentrantLock());
+    }
+
+    private ReportQueue(int capacity, byte defaultId, ReentrantLock lock) {
+        this(capacity, defaultId, lock, lock.newCondition());
+    }
+
+    /**
+     * @param capacity  Maximum number of reports that can be waiting for the writer.
+     * @param defaultId Report ID of the reports that are offered without one.
+     * @param lock      Lock that guards the queue.
+     * @param notEmpty  Condition of the lock that is signalled when a report was queued.
+     */
+    ReportQueue(int capacity, byte defaultId, ReentrantLock lock, Condition notEmpty) {
+        checkArgument(capacity > 0, "capacity must be positive");
+        this.defaultId = defaultId;
+        this.lock = checkNotNull(lock);
+        this.notEmpty = checkNotNull(notEmpty);
+        this.notFull = lock.newCondition();
+        ids = new byte[capacity];
+        reports = new long[capacity];
+        reportsHigh = new long[capacity];
+        requestTimes = new long[capacity];
+        enqueueTimes = new long[capacity];
+        batches = new ReportBatch[capacity];
+        deadlines = new long[capacity];
+        jitters = new LatencyHistogram[capacity];
+        limit = capacity;
+    }
+
+    /**
+     * Change what happens when a report is offered to a full queue.
+     *
+     * @param policy New overflow policy.
+     */
+    void setOverflowPolicy(@OverflowPolicy int policy) {
+        lock.lock();
+        try {
+            overflowPolicy = policy;
+            // Producers that are blocked right now have to re-evaluate the policy.
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Limit the number of reports that may be waiting for the writer to less than the capacity.
+     * The queue counts as full once the limit is reached.
+     *
+     * @param newLimit Maximum number of waiting reports, between 1 and the capacity.
+     */
+    void setLimit(int newLimit) {
+        checkArgument(newLimit > 0 && newLimit <= reports.length, "invalid limit");
+        lock.lock();
+        try {
+            limit = newLimit;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Append a report to the queue, applying the overflow policy if it is full.
+     *
+     * @param report      Packed report.
+     * @param requestTime {@link System#nanoTime()} when the report was requested.
+     * @param batch       Batch that the report belongs to, or {@code null}.
+     * @return {@code true} if the report was queued, {@code false} if the calling thread was
+     * interrupted while waiting for space.
+     * @throws IllegalStateException if the queue is full and the policy is
+     *                               {@link OverflowPolicy#FAIL}.
+     */
+    boolean offer(long report, long requestTime, @Nullable ReportBatch batch) {
+        return offer(defaultId, report, 0, requestTime, batch);
+    }
+
+    /**
+     * Append a report that is packed into two {@code long}s to the queue, see
+     * {@link #offer(long, long, ReportBatch)}.
+     *
+     * @param id          Report ID.
+     * @param report      First eight bytes of the packed report.
+     * @param reportHigh  Remaining bytes of the packed report.
+     * @param requestTime {@link System#nanoTime()} when the report was requested.
+     * @param batch       Batch that the report belongs to, or {@code null}.
+     * @return {@code true} if the report was queued, {@code false} if the calling thread was
+     * interrupted while waiting for space.
+     */
+    boolean offer(byte id, long report, long reportHigh, long requestTime,
+            @Nullable ReportBatch batch) {
+        return offer(id, report, reportHigh, requestTime, batch, 0, null);
+    }
+
+    /**
+     * Append a report that the writer thread holds back until its deadline, see
+     * {@link #offer(long, long, ReportBatch)}.
+     *
+     * @param report      Packed report.
+     * @param deadline    {@link System#nanoTime()} at which the report is due.
+     * @param jitter      Histogram that records how late the report reached the HID Host.
+     * @param requestTime {@link System#nanoTime()} when the report was requested.
+     * @return {@code true} if the report was queued, {@code false} if the calling thread was
+     * interrupted while waiting for space.
+     */
+    boolean offerAt(long report, long deadline, LatencyHistogram jitter, long requestTime) {
+        return offer(defaultId, report, 0, requestTime, null, deadline, checkNotNull(jitter));
+    }
+
+    private boolean offer(byte id, long report, long reportHigh, long requestTime,
+            @Nullable ReportBatch batch, long deadline, @Nullable LatencyHistogram jitter) {
+        @Nullable List<ReportBatch> droppedBatches = null;
+        lock.lock();
+        try {
+            while (count >= limit) {
+                if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                    if (batches[head] != null) {
+                        if (droppedBatches == null) {
+                            droppedBatches = new ArrayList<>();
+                        }
+                        droppedBatches.add(batches[head]);
+                        batches[head] = null;
+                    }
+                    jitters[head] = null;
+                    head = (head + 1) % reports.length;
+                    count--;
+                    droppedReports++;
+                } else if (overflowPolicy == OverflowPolicy.FAIL) {
+                    droppedReports++;
+                    throw new IllegalStateException("Report queue is full");
+                } else {
+                    try {
+                        notFull.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        droppedReports++;
+                        return false;
+                    }
+                }
+            }
+            int tail = (head + count) % reports.length;
+            ids[tail] = id;
+            reports[tail] = report;
+            reportsHigh[tail] = reportHigh;
+            requestTimes[tail] = requestTime;
+            enqueueTimes[tail] = System.nanoTime();
+            batches[tail] = batch;
+            deadlines[tail] = deadline;
+            jitters[tail] = jitter;
+            count++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+            // Complete the futures outside of the lock, their listeners may run right here.
+            failAll(droppedBatches, Reason.DROPPED);
+        }
+    }
+
+    /**
+     * Append a report even if the queue is full, e.g. to release the keys of a batch that couldn't
+     * be queued completely. It may exceed the limit; once the capacity is used up, it replaces the
+     * newest report. This never blocks.
+     *
+     * @param report      Packed report.
+     * @param requestTime {@link System#nanoTime()} when the report was requested.
+     */
+    void offerOverLimit(long report, long requestTime) {
+        @Nullable ReportBatch droppedBatch = null;
+        lock.lock();
+        try {
+            int tail;
+            if (count == reports.length) {
+                tail = (head + count - 1) % reports.length;
+                droppedBatch = batches[tail];
+                droppedReports++;
+            } else {
+                tail = (head + count) % reports.length;
+                count++;
+            }
+            ids[tail] = defaultId;
+            reports[tail] = report;
+            reportsHigh[tail] = 0;
+            requestTimes[tail] = requestTime;
+            enqueueTimes[tail] = System.nanoTime();
+            batches[tail] = null;
+            jitters[tail] = null;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+            if (droppedBatch != null) {
+                droppedBatch.fail(Reason.DROPPED);
+            }
+        }
+    }
+
+    /**
+     * Remove the oldest report from the queue, waiting until one is available.
+     *
+     * @return Packed report.
+     * @throws InterruptedException if the writer thread was interrupted while waiting.
+     */
+    long take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            return poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return {@code true} if no report is waiting.
+     */
+    boolean isEmpty() {
+        lock.lock();
+        try {
+            return count == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the oldest report from the queue without waiting.
+     *
+     * @return Packed report.
+     * @throws IllegalStateException if the queue is empty.
+     */
+    long poll() {
+        lock.lock();
+        try {
+            checkState(count > 0, "Report queue is empty");
+            long report = reports[head];
+            takenId = ids[head];
+            takenReportHigh = reportsHigh[head];
+            takenRequestTime = requestTimes[head];
+            takenEnqueueTime = enqueueTimes[head];
+            takenBatch = batches[head];
+            takenDeadline = deadlines[head];
+            takenJitter = jitters[head];
+            batches[head] = null;
+            jitters[head] = null;
+            head = (head + 1) % reports.length;
+            count--;
+            notFull.signal();
+            return report;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Report ID of the report that was taken last.
+     */
+    byte getTakenId() {
+        return takenId;
+    }
+
+    /**
+     * @return Remaining bytes of the report that was taken last, if it didn't fit into one
+     * {@code long}.
+     */
+    long getTakenReportHigh() {
+        return takenReportHigh;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the report that was taken last was requested.
+     */
+    long getTakenRequestTime() {
+        return takenRequestTime;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the report that was taken last was queued.
+     */
+    long getTakenEnqueueTime() {
+        return takenEnqueueTime;
+    }
+
+    /**
+     * @return Batch of the report that was taken last, or {@code null}.
+     */
+    @Nullable
+    ReportBatch getTakenBatch() {
+        return takenBatch;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} at which the report that was taken last is due, only
+     * valid if it has a jitter histogram.
+     */
+    long getTakenDeadline() {
+        return takenDeadline;
+    }
+
+    /**
+     * @return Histogram that records the jitter of the report that was taken last, or
+     * {@code null} if it has no deadline.
+     */
+    @Nullable
+    LatencyHistogram getTakenJitter() {
+        return takenJitter;
+    }
+
+    /**
+     * Discard all pending reports and fail their batches.
+     */
+    void clear() {
+        @Nullable List<ReportBatch> cancelledBatches = null;
+        lock.lock();
+        try {
+            for (int i = 0; i < count; i++) {
+                int index = (head + i) % reports.length;
+                if (batches[index] != null) {
+                    if (cancelledBatches == null) {
+                        cancelledBatches = new ArrayList<>();
+                    }
+                    cancelledBatches.add(batches[index]);
+                    batches[index] = null;
+                }
+                jitters[index] = null;
+            }
+            head = 0;
+            count = 0;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        failAll(cancelledBatches, Reason.CANCELLED);
+    }
+
+    /**
+     * @return Number of reports that were discarded because the queue was full.
+     */
+    long getDroppedReports() {
+        lock.lock();
+        try {
+            return droppedReports;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void failAll(@Nullable List<ReportBatch> failedBatches, @Reason int reason) {
+        if (failedBatches != null) {
+            for (ReportBatch batch : failedBatches) {
+                batch.fail(reason);
+            }
+        }
+    }
+}
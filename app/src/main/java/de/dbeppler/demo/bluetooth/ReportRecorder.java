@@ -0,0 +1,128 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.bluetooth;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Log of the reports that were sent to the HID Host, written to a memory-mapped file so recording
+ * costs a few memory stores per report and survives a crash of the app. See
+ * {@link HidDataSender#setReportRecorder} to start recording and {@link ReportReplayer} to send a
+ * log again.
+ *
+ * <p>The file starts with the magic number "HRL1", followed by one record per report: the
+ * {@link System#nanoTime()} at which it was sent (8 bytes), the report ID and the length of the
+ * report (1 byte each) and the binary report. All numbers are big-endian. The rest of the file is
+ * zero, so the log ends at the first record with report ID 0. Reports that don't fit into the file
+ * anymore are counted, but not recorded.
+ */
+public final class ReportRecorder implements Closeable {
+
+    static final int MAGIC = 0x48524C31;
+    static final int HEADER_LENGTH = Integer.BYTES;
+    static final int RECORD_HEADER_LENGTH = Long.BYTES + 2;
+
+    @GuardedBy("this")
+    private final MappedByteBuffer buffer;
+    @GuardedBy("this")
+    private long recordedReports;
+    @GuardedBy("this")
+    private long droppedReports;
+    @GuardedBy("this")
+    private boolean closed;
+
+    private ReportRecorder(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Create a new log, replacing the file if it exists.
+     *
+     * @param file     File to write the log to.
+     * @param capacity Size of the file in bytes. A keyboard report takes 18 bytes.
+     * @return Recorder that writes to the file.
+     * @throws IOException if the file couldn't be created or mapped.
+     */
+    public static ReportRecorder create(File file, int capacity) throws IOException {
+        checkArgument(capacity >= HEADER_LENGTH, "capacity too small");
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            // Drop the old log, so the new one is followed by zeros.
+            out.setLength(0);
+            MappedByteBuffer buffer =
+                    out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            buffer.putInt(MAGIC);
+            // The mapping stays valid after the file is closed.
+            return new ReportRecorder(buffer);
+        }
+    }
+
+    /**
+     * Append a report to the log.
+     *
+     * @param timestamp {@link System#nanoTime()} at which the report was sent.
+     * @param id        Report ID.
+     * @param report    Binary report.
+     */
+    synchronized void record(long timestamp, byte id, byte[] report) {
+        if (closed) {
+            return;
+        }
+        if (buffer.remaining() < RECORD_HEADER_LENGTH + report.length) {
+            droppedReports++;
+            return;
+        }
+        buffer.putLong(timestamp);
+        buffer.put(id);
+        buffer.put((byte) report.length);
+        buffer.put(report);
+        recordedReports++;
+    }
+
+    /**
+     * @return Number of reports in the log.
+     */
+    public synchronized long getRecordedReports() {
+        return recordedReports;
+    }
+
+    /**
+     * @return Number of reports that were sent after the file was full.
+     */
+    public synchronized long getDroppedReports() {
+        return droppedReports;
+    }
+
+    /**
+     * Stop recording and write the log to the storage.
+     */
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            buffer.force();
+        }
+    }
+}
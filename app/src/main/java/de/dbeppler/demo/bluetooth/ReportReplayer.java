@@ -0,0 +1,154 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.bluetooth;
+
+import androidx.annotation.WorkerThread;
+
+import de.dbeppler.demo.bluetooth.ConsumerReport.ConsumerDataSender;
+import de.dbeppler.demo.bluetooth.KeyboardReport.KeyboardDataSender;
+import de.dbeppler.demo.bluetooth.MouseReport.PointerDataSender;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Sends the reports of a log that was written by a {@link ReportRecorder} again, with the
+ * recorded gaps between them or faster. Keyboard reports are sent through the
+ * {@link KeyboardDataSender}; mouse and consumer reports only if it is a
+ * {@link PointerDataSender} or a {@link ConsumerDataSender}, like {@link HidDataSender}.
+ *
+ * <p>Instances can replay the log any number of times, also from multiple threads.
+ */
+public final class ReportReplayer {
+
+    private final ByteBuffer log;
+
+    private ReportReplayer(ByteBuffer log) {
+        this.log = log;
+    }
+
+    /**
+     * @param file Log that was written by a {@link ReportRecorder}.
+     * @return Replayer for the log.
+     * @throws IOException if the file couldn't be mapped or doesn't contain a log.
+     */
+    public static ReportReplayer open(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            ByteBuffer log =
+                    in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            if (log.remaining() < ReportRecorder.HEADER_LENGTH
+                    || log.getInt() != ReportRecorder.MAGIC) {
+                throw new IOException("Not a report log");
+            }
+            return new ReportReplayer(log.slice());
+        }
+    }
+
+    /**
+     * Send all reports of the log. Blocks until the last report was handed to the data sender.
+     *
+     * @param dataSender Interface to send the data with.
+     * @param speed      Factor by which the recorded gaps between reports are shortened, 1 for
+     *                   the original timing or {@link Double#POSITIVE_INFINITY} to send the
+     *                   reports without gaps.
+     * @return Number of reports that were sent.
+     * @throws InterruptedException if the thread was interrupted while waiting for a report.
+     */
+    @WorkerThread
+    public long replay(KeyboardDataSender dataSender, double speed) throws InterruptedException {
+        checkArgument(speed > 0, "speed must be positive");
+        ByteBuffer records = log.duplicate();
+        byte[] report = new byte[2 * Long.BYTES];
+        long start = System.nanoTime();
+        long firstTimestamp = 0;
+        long count = 0;
+        while (records.remaining() >= ReportRecorder.RECORD_HEADER_LENGTH) {
+            long timestamp = records.getLong();
+            byte id = records.get();
+            int length = records.get() & 0xFF;
+            if (id == 0 || length > report.length || length > records.remaining()) {
+                // End of the log, or a record that was cut off by a crash.
+                break;
+            }
+            records.get(report, 0, length);
+            if (count == 0) {
+                firstTimestamp = timestamp;
+            }
+            Deadlines.await(start + (long) ((timestamp - firstTimestamp) / speed),
+                    Deadlines.DEFAULT_SPIN_NANOS);
+            if (send(dataSender, id, report, length)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean send(KeyboardDataSender dataSender, byte id, byte[] report, int length) {
+        switch (id) {
+            case Constants.ID_KEYBOARD:
+                if (length < KeyboardReport.REPORT_LENGTH) {
+                    return false;
+                }
+                dataSender.sendKeyboard(report[0] & 0xFF, report[2] & 0xFF, report[3] & 0xFF,
+                        report[4] & 0xFF, report[5] & 0xFF, report[6] & 0xFF, report[7] & 0xFF);
+                return true;
+            case Constants.ID_KEYBOARD_BITMAP:
+                if (length < KeyboardBitmapReport.REPORT_LENGTH) {
+                    return false;
+                }
+                dataSender.sendKeyboardBitmap(report[0] & 0xFF,
+                        readLong(report, 1, Long.BYTES),
+                        readLong(report, 1 + Long.BYTES,
+                                KeyboardBitmapReport.REPORT_LENGTH - 1 - Long.BYTES));
+                return true;
+            case Constants.ID_MOUSE:
+                if (length < MouseReport.REPORT_LENGTH
+                        || !(dataSender instanceof PointerDataSender)) {
+                    return false;
+                }
+                ((PointerDataSender) dataSender).sendPointer(
+                        report[0] & 0xFF, report[1], report[2], report[3]);
+                return true;
+            case Constants.ID_CONSUMER:
+                if (length < ConsumerReport.REPORT_LENGTH
+                        || !(dataSender instanceof ConsumerDataSender)) {
+                    return false;
+                }
+                ((ConsumerDataSender) dataSender).sendConsumer(
+                        (report[0] & 0xFF) | (report[1] & 0xFF) << 8);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Read little-endian bytes, so bit {@code i} of the result is bit {@code i} of the bitmap.
+     */
+    private static long readLong(byte[] report, int offset, int length) {
+        long value = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            value = value << 8 | (report[offset + i] & 0xFFL);
+        }
+        return value;
+    }
+}
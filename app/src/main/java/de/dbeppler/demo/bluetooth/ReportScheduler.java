@@ -0,0 +1,235 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.bluetooth;
+
+import com.google.common.math.IntMath;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Multiplexes the outgoing reports of all report IDs onto the single writer thread. Keyboard and
+ * consumer control reports have their own lossless queues and are sent in order, while pointer
+ * movements are added up until the next transmission slot, so high-rate touch input only ever
+ * occupies a few slots and never delays a keystroke.
+ *
+ * <p>The next report is picked by strict priority: keyboard, consumer control, pointer. Any number
+ * of threads may offer reports, a single writer thread takes them.
+ */
+final class ReportScheduler {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    private final ReportQueue keyboardQueue;
+    private final ReportQueue consumerQueue;
+
+    /**
+     * Pending pointer reports. A new entry is only started when the buttons change, so clicks
+     * survive while movements with the same buttons are added up.
+     */
+    private final int[] pointerButtons;
+    private final int[] pointerX;
+    private final int[] pointerY;
+    private final int[] pointerWheel;
+
+    @GuardedBy("lock")
+    private int pointerHead;
+
+    @GuardedBy("lock")
+    private int pointerCount;
+
+    /** Report that was taken last, only accessed by the writer thread. */
+    private long takenReport;
+    private long takenReportHigh;
+
+    /**
+     * @param keyboardCapacity Maximum number of keyboard reports that can be waiting.
+     * @param consumerCapacity Maximum number of consumer control reports that can be waiting.
+     * @param pointerCapacity  Maximum number of button changes that can be waiting. Once they are
+     *                         exceeded, the latest buttons win.
+     */
+    ReportScheduler(int keyboardCapacity, int consumerCapacity, int pointerCapacity) {
+        checkArgument(pointerCapacity > 0, "capacity must be positive");
+        keyboardQueue = new ReportQueue(keyboardCapacity, Constants.ID_KEYBOARD, lock, notEmpty);
+        consumerQueue = new ReportQueue(consumerCapacity, Constants.ID_CONSUMER, lock, notEmpty);
+        pointerButtons = new int[pointerCapacity];
+        pointerX = new int[pointerCapacity];
+        pointerY = new int[pointerCapacity];
+        pointerWheel = new int[pointerCapacity];
+    }
+
+    /**
+     * @return Queue of the keyboard reports.
+     */
+    ReportQueue getKeyboardQueue() {
+        return keyboardQueue;
+    }
+
+    /**
+     * @return Queue of the consumer control reports.
+     */
+    ReportQueue getConsumerQueue() {
+        return consumerQueue;
+    }
+
+    /**
+     * Add a pointer movement to the pending pointer reports. This never blocks.
+     *
+     * @param buttons Button bit mask.
+     * @param dx      Relative X movement.
+     * @param dy      Relative Y movement.
+     * @param wheel   Relative wheel movement.
+     */
+    void offerPointer(int buttons, int dx, int dy, int wheel) {
+        lock.lock();
+        try {
+            int tail = (pointerHead + pointerCount - 1) % pointerButtons.length;
+            if (pointerCount == 0
+                    || (pointerButtons[tail] != buttons && pointerCount < pointerButtons.length)) {
+                tail = (pointerHead + pointerCount) % pointerButtons.length;
+                pointerButtons[tail] = buttons;
+                pointerX[tail] = 0;
+                pointerY[tail] = 0;
+                pointerWheel[tail] = 0;
+                pointerCount++;
+            } else {
+                pointerButtons[tail] = buttons;
+            }
+            pointerX[tail] = IntMath.saturatedAdd(pointerX[tail], dx);
+            pointerY[tail] = IntMath.saturatedAdd(pointerY[tail], dy);
+            pointerWheel[tail] = IntMath.saturatedAdd(pointerWheel[tail], wheel);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until a report of any ID is available.
+     *
+     * @throws InterruptedException if the writer thread was interrupted while waiting.
+     */
+    void awaitReport() throws InterruptedException {
+        lock.lock();
+        try {
+            while (isEmpty()) {
+                notEmpty.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the report with the highest priority, waiting until one is available. For keyboard
+     * and consumer control reports, the details are available from their queue afterwards.
+     * Keyboard reports include the bitmap reports, which stay in order with the boot reports.
+     *
+     * @return ID of the report, see {@link #getTakenReport()} for the report itself.
+     * @throws InterruptedException if the writer thread was interrupted while waiting.
+     */
+    byte take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (isEmpty()) {
+                notEmpty.await();
+            }
+            if (!keyboardQueue.isEmpty()) {
+                return take(keyboardQueue);
+            }
+            if (!consumerQueue.isEmpty()) {
+                return take(consumerQueue);
+            }
+            takenReport = pollPointer();
+            takenReportHigh = 0;
+            return Constants.ID_MOUSE;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Packed report that was taken last.
+     */
+    long getTakenReport() {
+        return takenReport;
+    }
+
+    /**
+     * @return Remaining bytes of the packed report that was taken last, if it didn't fit into one
+     * {@code long}.
+     */
+    long getTakenReportHigh() {
+        return takenReportHigh;
+    }
+
+    /**
+     * Discard all pending reports and fail the batches of the keyboard reports.
+     */
+    void clear() {
+        keyboardQueue.clear();
+        consumerQueue.clear();
+        lock.lock();
+        try {
+            pointerHead = 0;
+            pointerCount = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @GuardedBy("lock")
+    private byte take(ReportQueue queue) {
+        takenReport = queue.poll();
+        takenReportHigh = queue.getTakenReportHigh();
+        return queue.getTakenId();
+    }
+
+    @GuardedBy("lock")
+    private boolean isEmpty() {
+        return keyboardQueue.isEmpty() && consumerQueue.isEmpty() && pointerCount == 0;
+    }
+
+    /**
+     * Take as much of the oldest pointer movement as fits into one report. The rest stays pending
+     * with the same buttons.
+     */
+    @GuardedBy("lock")
+    private long pollPointer() {
+        int head = pointerHead;
+        int dx = clamp(pointerX[head]);
+        int dy = clamp(pointerY[head]);
+        int wheel = clamp(pointerWheel[head]);
+        pointerX[head] -= dx;
+        pointerY[head] -= dy;
+        pointerWheel[head] -= wheel;
+        if (pointerX[head] == 0 && pointerY[head] == 0 && pointerWheel[head] == 0) {
+            pointerHead = (head + 1) % pointerButtons.length;
+            pointerCount--;
+        }
+        return MouseReport.pack(pointerButtons[head], dx, dy, wheel);
+    }
+
+    private static int clamp(int movement) {
+        return Math.max(-MouseReport.MAX_MOVEMENT, Math.min(MouseReport.MAX_MOVEMENT, movement));
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.bluetooth;
+
+import java.util.Arrays;
+
+/**
+ * Keeps keys from being typed twice when sending resumes after the link to the HID Host dropped.
+ * All keys are released first on resume, so a key that was already held before the link dropped
+ * and is still held by the next report would be pressed again. Such keys are removed from the
+ * keyboard reports until a report releases them, and the same goes for mouse buttons, which would
+ * click again.
+ *
+ * <p>Modifiers are left alone, since pressing them again doesn't type anything. Instances are not
+ * thread-safe.
+ */
+final class ResumeFilter {
+
+    /** Scan codes below this one are error codes, not keys. */
+    private static final int FIRST_KEY = 4;
+
+    /** Last keyboard report that reached the HID Host. */
+    private byte lastId;
+    private long lastReport;
+    private long lastReportHigh;
+
+    /** Buttons of the last mouse report that reached the HID Host. */
+    private int lastButtons;
+
+    /** Bit {@code i} is set if the key with scan code {@code i} must not be pressed again. */
+    private final long[] suppressed = new long[4];
+    /** Keys of the boot report that is being filtered, kept to not allocate per report. */
+    private final long[] present = new long[suppressed.length];
+    private int suppressedButtons;
+    private boolean active;
+
+    /** Result of the last {@link #filter} call. */
+    private long filteredReport;
+    private long filteredReportHigh;
+
+    /**
+     * A report reached the HID Host.
+     *
+     * @param id         Report ID.
+     * @param report     Packed report, or its first part for bitmap reports.
+     * @param reportHigh Second part of packed bitmap reports.
+     */
+    void onSent(byte id, long report, long reportHigh) {
+        if (id == Constants.ID_KEYBOARD || id == Constants.ID_KEYBOARD_BITMAP) {
+            lastId = id;
+            lastReport = report;
+            lastReportHigh = reportHigh;
+        } else if (id == Constants.ID_MOUSE) {
+            lastButtons = (int) report & 0xFF;
+        }
+    }
+
+    /**
+     * All keys and buttons were released after the link came back. Keys and buttons of the last
+     * reports are suppressed from now on.
+     */
+    void onResume() {
+        Arrays.fill(suppressed, 0);
+        if (lastId == Constants.ID_KEYBOARD) {
+            for (long keys = lastReport >>> 16; keys != 0; keys >>>= 8) {
+                addKey(suppressed, (int) keys & 0xFF);
+            }
+        } else if (lastId == Constants.ID_KEYBOARD_BITMAP) {
+            suppressed[0] = lastReport >>> 8 | lastReportHigh << 56;
+            suppressed[1] = lastReportHigh >>> 8;
+        }
+        suppressedButtons = lastButtons;
+        active = isActive();
+        lastId = 0;
+        lastButtons = 0;
+    }
+
+    /**
+     * Remove the suppressed keys from a report that is about to be sent. The result is available
+     * from {@link #getReport} and {@link #getReportHigh}.
+     *
+     * @param id         Report ID.
+     * @param report     Packed report, or its first part for bitmap reports.
+     * @param reportHigh Second part of packed bitmap reports.
+     */
+    void filter(byte id, long report, long reportHigh) {
+        filteredReport = report;
+        filteredReportHigh = reportHigh;
+        if (!active) {
+            return;
+        }
+        if (id == Constants.ID_KEYBOARD) {
+            filterBoot(report);
+        } else if (id == Constants.ID_KEYBOARD_BITMAP) {
+            filterBitmap(report, reportHigh);
+        } else if (id == Constants.ID_MOUSE) {
+            filterMouse(report);
+        } else {
+            return;
+        }
+        active = isActive();
+    }
+
+    /**
+     * @return Filtered report, or its first part for bitmap reports.
+     */
+    long getReport() {
+        return filteredReport;
+    }
+
+    /**
+     * @return Second part of the filtered bitmap report.
+     */
+    long getReportHigh() {
+        return filteredReportHigh;
+    }
+
+    private void filterBoot(long report) {
+        int firstCode = (int) (report >>> 16) & 0xFF;
+        if (firstCode != 0 && firstCode < FIRST_KEY) {
+            // Error reports don't change which keys are pressed.
+            return;
+        }
+        Arrays.fill(present, 0);
+        long keys = 0;
+        int shift = 16;
+        for (long slots = report >>> 16; slots != 0; slots >>>= 8) {
+            int code = (int) slots & 0xFF;
+            if (code == 0) {
+                continue;
+            }
+            addKey(present, code);
+            if (!isKeySet(suppressed, code)) {
+                // Keep the remaining keys in the leading slots.
+                keys |= (long) code << shift;
+                shift += 8;
+            }
+        }
+        for (int i = 0; i < suppressed.length; i++) {
+            suppressed[i] &= present[i];
+        }
+        filteredReport = (report & 0xFFFFL) | keys;
+    }
+
+    private void filterBitmap(long report, long reportHigh) {
+        long keys = report >>> 8 | reportHigh << 56;
+        long keysHigh = reportHigh >>> 8;
+        // Keys that aren't pressed anymore were released, and higher scan codes don't fit.
+        suppressed[0] &= keys;
+        suppressed[1] &= keysHigh;
+        suppressed[2] = 0;
+        suppressed[3] = 0;
+        keys &= ~suppressed[0];
+        keysHigh &= ~suppressed[1];
+        filteredReport = (report & 0xFFL) | keys << 8;
+        filteredReportHigh = keys >>> 56 | keysHigh << 8;
+    }
+
+    private void filterMouse(long report) {
+        // Buttons that aren't pressed anymore were released, the movement is kept.
+        suppressedButtons &= (int) report;
+        filteredReport = report & ~(long) suppressedButtons;
+    }
+
+    private boolean isActive() {
+        return suppressedButtons != 0 || isAnySet(suppressed);
+    }
+
+    private static void addKey(long[] keys, int code) {
+        if (code >= FIRST_KEY) {
+            keys[code >>> 6] |= 1L << code;
+        }
+    }
+
+    private static boolean isKeySet(long[] keys, int code) {
+        return (keys[code >>> 6] & 1L << code) != 0;
+    }
+
+    private static boolean isAnySet(long[] keys) {
+        for (long word : keys) {
+            if (word != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
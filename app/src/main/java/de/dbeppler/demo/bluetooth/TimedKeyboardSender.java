@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.bluetooth;
+
+import androidx.annotation.WorkerThread;
+
+import de.dbeppler.demo.bluetooth.KeyboardReport.KeyboardDataSender;
+import de.dbeppler.demo.metrics.LatencyHistogram;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Scheduling stage in front of a {@link KeyboardDataSender} that hands keyboard reports over at
+ * absolute {@link System#nanoTime()} deadlines, see {@link Deadlines}. Callers should advance
+ * their deadlines by fixed gaps instead of sleeping between reports, so the time spent sending
+ * doesn't add up.
+ *
+ * <p>The jitter of every report, i.e. how late it was sent relative to its deadline, is recorded.
+ * {@link HidDataSender} queues the report right away together with its deadline, and its writer
+ * thread holds the report back until then, so the time in the queue doesn't delay it and the
+ * jitter is measured when the transport accepted it. Other senders are called once the deadline
+ * has passed, see {@link KeyboardDataSender#sendKeyboardAt}.
+ *
+ * <p>Only one thread may send reports at a time; the jitter can be read from any thread.
+ */
+public final class TimedKeyboardSender {
+
+    private final KeyboardDataSender dataSender;
+    private final LatencyHistogram jitter = new LatencyHistogram();
+
+    /**
+     * @param dataSender Interface to send the Keyboard data with.
+     */
+    public TimedKeyboardSender(KeyboardDataSender dataSender) {
+        this.dataSender = checkNotNull(dataSender);
+    }
+
+    /**
+     * Send the keyboard report at the deadline. Reports whose deadline passed already are sent
+     * right away.
+     *
+     * @param deadline Value of {@link System#nanoTime()} at which the report is due.
+     * @param modifier Modifier keys bit mask (Ctrl/Shift/Alt/GUI).
+     * @param key1     Scan code of the 1st button that is currently pressed (or 0 if none).
+     * @param key2     Scan code of the 2nd button that is currently pressed (or 0 if none).
+     * @param key3     Scan code of the 3rd button that is currently pressed (or 0 if none).
+     * @param key4     Scan code of the 4th button that is currently pressed (or 0 if none).
+     * @param key5     Scan code of the 5th button that is currently pressed (or 0 if none).
+     * @param key6     Scan code of the 6th button that is currently pressed (or 0 if none).
+     * @throws InterruptedException if the thread was interrupted while waiting.
+     */
+    @WorkerThread
+    public void sendKeyboardAt(long deadline, int modifier,
+            int key1, int key2, int key3, int key4, int key5, int key6)
+            throws InterruptedException {
+        dataSender.sendKeyboardAt(
+                deadline, jitter, modifier, key1, key2, key3, key4, key5, key6);
+    }
+
+    /**
+     * Get how late the reports were sent since the last reset. Reports that are still queued
+     * aren't included yet.
+     *
+     * @return Histogram of the jitter in nanoseconds.
+     */
+    public LatencyHistogram.Snapshot getJitter() {
+        return jitter.snapshot();
+    }
+
+    /**
+     * Start measuring the jitter from scratch.
+     */
+    public void resetJitter() {
+        jitter.snapshotAndReset();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.input;
+
+import de.dbeppler.demo.bluetooth.KeyboardReport;
+import de.dbeppler.demo.bluetooth.KeyboardReport.KeyboardDataSender;
+
+import java.util.Arrays;
+
+/**
+ * Text that was translated once into ready-to-send binary keyboard reports, see
+ * {@link KeyboardHelper#compile(CharSequence)}.
+ */
+public final class CompiledText {
+
+    private final byte[] reports;
+    private final int reportCount;
+
+    private CompiledText(byte[] reports, int reportCount) {
+        this.reports = reports;
+        this.reportCount = reportCount;
+    }
+
+    /**
+     * Translate the text into keyboard reports.
+     *
+     * @param text   Text to translate.
+     * @param layout Layout of the HID Host.
+     * @return Compiled text.
+     */
+    static CompiledText compile(CharSequence text, KeyboardLayout layout) {
+        ReportBuffer buffer = new ReportBuffer(text.length());
+        TypingEngine typingEngine = new TypingEngine(buffer);
+        for (int i = 0; i < text.length(); i++) {
+            int code = layout.lookup(text.charAt(i));
+            if (code != 0) {
+                typingEngine.type(code);
+            }
+        }
+        typingEngine.releaseAll();
+        return new CompiledText(
+                Arrays.copyOf(buffer.reports, buffer.count * KeyboardReport.REPORT_LENGTH),
+                buffer.count);
+    }
+
+    /**
+     * @return Number of keyboard reports needed to type the text.
+     */
+    public int getReportCount() {
+        return reportCount;
+    }
+
+    /**
+     * Send all reports.
+     *
+     * @param dataSender Interface to send the Keyboard data with.
+     */
+    void sendTo(KeyboardDataSender dataSender) {
+        dataSender.sendKeyboardReports(reports, 0, reportCount);
+    }
+
+    /**
+     * Collects the reports of the typing engine in their binary form.
+     */
+    private static final class ReportBuffer implements KeyboardDataSender {
+
+        private byte[] reports;
+        private int count;
+
+        ReportBuffer(int expectedReports) {
+            reports = new byte[Math.max(expectedReports, 1) * KeyboardReport.REPORT_LENGTH];
+        }
+
+        @Override
+        public void sendKeyboard(
+                int modifier, int key1, int key2, int key3, int key4, int key5, int key6) {
+            int start = count * KeyboardReport.REPORT_LENGTH;
+            if (start == reports.length) {
+                reports = Arrays.copyOf(reports, reports.length * 2);
+            }
+            reports[start] = (byte) modifier;
+            reports[start + 1] = 0;
+            reports[start + 2] = (byte) key1;
+            reports[start + 3] = (byte) key2;
+            reports[start + 4] = (byte) key3;
+            reports[start + 5] = (byte) key4;
+            reports[start + 6] = (byte) key5;
+            reports[start + 7] = (byte) key6;
+            count++;
+        }
+    }
+}
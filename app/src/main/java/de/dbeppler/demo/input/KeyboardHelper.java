@@ -17,13 +17,22 @@
 package de.dbeppler.demo.input;
 
 import androidx.annotation.IntDef;
+import androidx.annotation.WorkerThread;
 
+import de.dbeppler.demo.bluetooth.KeyboardReport;
 import de.dbeppler.demo.bluetooth.KeyboardReport.KeyboardDataSender;
-import com.google.common.collect.ImmutableMap;
+import com.google.common.base.Objects;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.util.Map;
+import java.nio.charset.Charset;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -81,116 +90,51 @@ public class KeyboardHelper {
         int UP = 82;
     }
 
-    private static final Map<Character, Integer> keyMap =
-            new ImmutableMap.Builder<Character, Integer>()
-                    .put('a', 0x04)
-                    .put('b', 0x05)
-                    .put('c', 0x06)
-                    .put('d', 0x07)
-                    .put('e', 0x08)
-                    .put('f', 0x09)
-                    .put('g', 0x0A)
-                    .put('h', 0x0B)
-                    .put('i', 0x0C)
-                    .put('j', 0x0D)
-                    .put('k', 0x0E)
-                    .put('l', 0x0F)
-                    .put('m', 0x10)
-                    .put('n', 0x11)
-                    .put('o', 0x12)
-                    .put('p', 0x13)
-                    .put('q', 0x14)
-                    .put('r', 0x15)
-                    .put('s', 0x16)
-                    .put('t', 0x17)
-                    .put('u', 0x18)
-                    .put('v', 0x19)
-                    .put('w', 0x1A)
-                    .put('x', 0x1B)
-                    .put('y', 0x1C)
-                    .put('z', 0x1D)
-                    .put('1', 0x1E)
-                    .put('2', 0x1F)
-                    .put('3', 0x20)
-                    .put('4', 0x21)
-                    .put('5', 0x22)
-                    .put('6', 0x23)
-                    .put('7', 0x24)
-                    .put('8', 0x25)
-                    .put('9', 0x26)
-                    .put('0', 0x27)
-                    .put(' ', 0x2C)
-                    .put('-', 0x2D)
-                    .put('=', 0x2E)
-                    .put('[', 0x2F)
-                    .put(']', 0x30)
-                    .put('\\', 0x31)
-                    .put(';', 0x33)
-                    .put('\'', 0x34)
-                    .put('`', 0x35)
-                    .put(',', 0x36)
-                    .put('.', 0x37)
-                    .put('/', 0x38)
-                    .build();
-
-    private static final Map<Character, Integer> shiftKeyMap =
-            new ImmutableMap.Builder<Character, Integer>()
-                    .put('A', 0x04)
-                    .put('B', 0x05)
-                    .put('C', 0x06)
-                    .put('D', 0x07)
-                    .put('E', 0x08)
-                    .put('F', 0x09)
-                    .put('G', 0x0A)
-                    .put('H', 0x0B)
-                    .put('I', 0x0C)
-                    .put('J', 0x0D)
-                    .put('K', 0x0E)
-                    .put('L', 0x0F)
-                    .put('M', 0x10)
-                    .put('N', 0x11)
-                    .put('O', 0x12)
-                    .put('P', 0x13)
-                    .put('Q', 0x14)
-                    .put('R', 0x15)
-                    .put('S', 0x16)
-                    .put('T', 0x17)
-                    .put('U', 0x18)
-                    .put('V', 0x19)
-                    .put('W', 0x1A)
-                    .put('X', 0x1B)
-                    .put('Y', 0x1C)
-                    .put('Z', 0x1D)
-                    .put('!', 0x1E)
-                    .put('@', 0x1F)
-                    .put('#', 0x20)
-                    .put('$', 0x21)
-                    .put('%', 0x22)
-                    .put('^', 0x23)
-                    .put('&', 0x24)
-                    .put('*', 0x25)
-                    .put('(', 0x26)
-                    .put(')', 0x27)
-                    .put('_', 0x2D)
-                    .put('+', 0x2E)
-                    .put('{', 0x2F)
-                    .put('}', 0x30)
-                    .put('|', 0x31)
-                    .put(':', 0x33)
-                    .put('"', 0x34)
-                    .put('~', 0x35)
-                    .put('<', 0x36)
-                    .put('>', 0x37)
-                    .put('?', 0x38)
-                    .build();
+    /**
+     * Upper bound for the memory used by cached compiled texts, in bytes.
+     */
+    private static final long COMPILED_TEXT_CACHE_SIZE = 256 * 1024;
+
+    /**
+     * Number of characters that are read from a text stream at once.
+     */
+    private static final int TEXT_BUFFER_SIZE = 1024;
+
+    private static final LoadingCache<CompiledTextKey, CompiledText> compiledTextCache =
+            CacheBuilder.newBuilder()
+                    .maximumWeight(COMPILED_TEXT_CACHE_SIZE)
+                    .<CompiledTextKey, CompiledText>weigher((key, value) ->
+                            key.text.length() * 2
+                                    + value.getReportCount() * KeyboardReport.REPORT_LENGTH)
+                    .build(CacheLoader.from(key -> CompiledText.compile(key.text, key.layout)));
 
     private final KeyboardDataSender dataSender;
+    private final TypingEngine typingEngine;
+    private volatile KeyboardLayout layout = KeyboardLayout.US;
 
     /**
      * @param dataSender Interface to send the Keyboard data with.
      */
     public KeyboardHelper(KeyboardDataSender dataSender) {
         this.dataSender = checkNotNull(dataSender);
+        this.typingEngine = new TypingEngine(dataSender);
+    }
+
+    /**
+     * Set the keyboard layout of the HID Host that characters are translated with. It can be
+     * changed at any time; a text that is being typed keeps the layout it started with.
+     *
+     * @param layout Keyboard layout, e.g. {@link KeyboardLayout#US}.
+     */
+    public void setLayout(KeyboardLayout layout) {
+        this.layout = checkNotNull(layout);
+    }
+
+    /**
+     * @return Keyboard layout that characters are translated with.
+     */
+    public KeyboardLayout getLayout() {
+        return layout;
     }
 
     /**
@@ -264,26 +208,156 @@ public class KeyboardHelper {
 
     /**
      * Send a key press event, followed by an immediate release event, for the specified character.
+     * Characters that need a dead key are preceded by its press and release events.
      *
      * @param key Character to send.
      */
     public void sendChar(char key) {
-        boolean shift = false;
-        Integer code = keyMap.get(key);
-        if (code == null) {
-            shift = true;
-            code = shiftKeyMap.get(key);
-            if (code == null) {
-                return;
+        int code = layout.lookup(key);
+        if (code == 0) {
+            return;
+        }
+
+        typingEngine.type(code);
+        typingEngine.releaseAll();
+    }
+
+    /**
+     * Type the whole text, using key rollover to send roughly one report per character instead of
+     * a press and a release report. Characters without a scan code are skipped. All keys are
+     * released at the end.
+     *
+     * <p>Must not be called from multiple threads at once.
+     *
+     * @param text Text to send.
+     */
+    public void sendString(CharSequence text) {
+        KeyboardLayout layout = this.layout;
+        for (int i = 0; i < text.length(); i++) {
+            int code = layout.lookup(text.charAt(i));
+            if (code != 0) {
+                typingEngine.type(code);
             }
         }
+        typingEngine.releaseAll();
+    }
 
-        sendKeyDown(shift ? Modifier.LEFT_SHIFT : Modifier.NONE, code);
-        sendKeysUp(Modifier.NONE);
+    /**
+     * Type the text from the reader while it is read, so texts of any size are typed with a small
+     * fixed buffer. The characters before the start offset of the job are skipped, and typing
+     * stops early if the job is cancelled. All keys are released at the end.
+     *
+     * <p>This blocks until all reports were handed to the data sender, and must not be called from
+     * multiple threads at once.
+     *
+     * @param reader Text to send, is not closed.
+     * @param job    Progress and cancellation of the typing.
+     * @return {@code true} if the whole text was typed, {@code false} if the job was cancelled.
+     * @throws IOException if the text could not be read. The offset of the job tells how much was
+     *                     typed before.
+     */
+    @WorkerThread
+    public boolean sendText(Reader reader, TypingJob job) throws IOException {
+        long offset = 0;
+        long skip = job.getStartOffset();
+        while (skip > offset) {
+            long skipped = reader.skip(skip - offset);
+            if (skipped <= 0) {
+                // End of the stream, or skipping isn't supported: read instead.
+                if (reader.read() < 0) {
+                    return true;
+                }
+                skipped = 1;
+            }
+            offset += skipped;
+        }
+
+        KeyboardLayout layout = this.layout;
+        char[] buffer = new char[TEXT_BUFFER_SIZE];
+        try {
+            int count;
+            while ((count = reader.read(buffer)) >= 0) {
+                for (int i = 0; i < count; i++) {
+                    if (job.isCancelled()) {
+                        return false;
+                    }
+                    int code = layout.lookup(buffer[i]);
+                    if (code != 0) {
+                        typingEngine.type(code);
+                    }
+                    job.setOffset(++offset);
+                }
+                // Don't hold back keys while waiting for more text.
+                typingEngine.flush();
+            }
+            return !job.isCancelled();
+        } finally {
+            typingEngine.releaseAll();
+        }
+    }
+
+    /**
+     * Type the text from the input stream while it is decoded, see
+     * {@link #sendText(Reader, TypingJob)}. The offset of the job counts decoded characters.
+     *
+     * @param in      Encoded text to send, is not closed.
+     * @param charset Encoding of the text. Malformed input is replaced.
+     * @param job     Progress and cancellation of the typing.
+     * @return {@code true} if the whole text was typed, {@code false} if the job was cancelled.
+     * @throws IOException if the text could not be read.
+     */
+    @WorkerThread
+    public boolean sendText(InputStream in, Charset charset, TypingJob job) throws IOException {
+        return sendText(new InputStreamReader(in, charset), job);
+    }
+
+    /**
+     * Translate the text into keyboard reports once, so it can be sent repeatedly without
+     * translating every character again. Compiled texts are kept in a size-bounded LRU cache, so
+     * compiling the same text again is cheap.
+     *
+     * @param text Text to compile.
+     * @return Reports that type the text, see {@link #sendString(CharSequence)}.
+     */
+    public CompiledText compile(CharSequence text) {
+        return compiledTextCache.getUnchecked(new CompiledTextKey(text.toString(), layout));
+    }
+
+    /**
+     * Send the reports of a compiled text.
+     *
+     * @param text Compiled text.
+     */
+    public void sendCompiled(CompiledText text) {
+        text.sendTo(dataSender);
     }
 
     private void sendKeysDown(
             @Modifier int modifier, int key1, int key2, int key3, int key4, int key5, int key6) {
         dataSender.sendKeyboard(modifier, key1, key2, key3, key4, key5, key6);
     }
+
+    private static final class CompiledTextKey {
+        final String text;
+        final KeyboardLayout layout;
+
+        CompiledTextKey(String text, KeyboardLayout layout) {
+            this.text = text;
+            this.layout = layout;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CompiledTextKey)) {
+                return false;
+            }
+            CompiledTextKey other = (CompiledTextKey) o;
+            return text.equals(other.text) && layout == other.layout;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(text, layout);
+        }
+    }
 }
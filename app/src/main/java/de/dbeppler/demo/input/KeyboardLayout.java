@@ -0,0 +1,405 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.input;
+
+import de.dbeppler.demo.input.KeyboardHelper.Modifier;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Char-indexed table that translates characters to the scan code and modifiers needed to type them
+ * on the HID Host. Each entry packs the modifier bit mask, the scan code and an optional dead key
+ * into a single {@code int}. The table is split into pages of 256 characters that are only
+ * allocated if they are used, so a lookup is two array loads without boxing or hashing.
+ *
+ * <p>Besides the built-in layouts, layouts can be created with a {@link Builder} or read from a
+ * compact binary format, see {@link #read(InputStream)}.
+ */
+public final class KeyboardLayout {
+
+    /**
+     * US QWERTY layout.
+     */
+    public static final KeyboardLayout US =
+            new Builder("us")
+                    .put('a', Modifier.NONE, 0x04)
+                    .put('b', Modifier.NONE, 0x05)
+                    .put('c', Modifier.NONE, 0x06)
+                    .put('d', Modifier.NONE, 0x07)
+                    .put('e', Modifier.NONE, 0x08)
+                    .put('f', Modifier.NONE, 0x09)
+                    .put('g', Modifier.NONE, 0x0A)
+                    .put('h', Modifier.NONE, 0x0B)
+                    .put('i', Modifier.NONE, 0x0C)
+                    .put('j', Modifier.NONE, 0x0D)
+                    .put('k', Modifier.NONE, 0x0E)
+                    .put('l', Modifier.NONE, 0x0F)
+                    .put('m', Modifier.NONE, 0x10)
+                    .put('n', Modifier.NONE, 0x11)
+                    .put('o', Modifier.NONE, 0x12)
+                    .put('p', Modifier.NONE, 0x13)
+                    .put('q', Modifier.NONE, 0x14)
+                    .put('r', Modifier.NONE, 0x15)
+                    .put('s', Modifier.NONE, 0x16)
+                    .put('t', Modifier.NONE, 0x17)
+                    .put('u', Modifier.NONE, 0x18)
+                    .put('v', Modifier.NONE, 0x19)
+                    .put('w', Modifier.NONE, 0x1A)
+                    .put('x', Modifier.NONE, 0x1B)
+                    .put('y', Modifier.NONE, 0x1C)
+                    .put('z', Modifier.NONE, 0x1D)
+                    .put('1', Modifier.NONE, 0x1E)
+                    .put('2', Modifier.NONE, 0x1F)
+                    .put('3', Modifier.NONE, 0x20)
+                    .put('4', Modifier.NONE, 0x21)
+                    .put('5', Modifier.NONE, 0x22)
+                    .put('6', Modifier.NONE, 0x23)
+                    .put('7', Modifier.NONE, 0x24)
+                    .put('8', Modifier.NONE, 0x25)
+                    .put('9', Modifier.NONE, 0x26)
+                    .put('0', Modifier.NONE, 0x27)
+                    .put('\n', Modifier.NONE, 0x28)
+                    .put('\t', Modifier.NONE, 0x2B)
+                    .put(' ', Modifier.NONE, 0x2C)
+                    .put('-', Modifier.NONE, 0x2D)
+                    .put('=', Modifier.NONE, 0x2E)
+                    .put('[', Modifier.NONE, 0x2F)
+                    .put(']', Modifier.NONE, 0x30)
+                    .put('\\', Modifier.NONE, 0x31)
+                    .put(';', Modifier.NONE, 0x33)
+                    .put('\'', Modifier.NONE, 0x34)
+                    .put('`', Modifier.NONE, 0x35)
+                    .put(',', Modifier.NONE, 0x36)
+                    .put('.', Modifier.NONE, 0x37)
+                    .put('/', Modifier.NONE, 0x38)
+                    .put('A', Modifier.LEFT_SHIFT, 0x04)
+                    .put('B', Modifier.LEFT_SHIFT, 0x05)
+                    .put('C', Modifier.LEFT_SHIFT, 0x06)
+                    .put('D', Modifier.LEFT_SHIFT, 0x07)
+                    .put('E', Modifier.LEFT_SHIFT, 0x08)
+                    .put('F', Modifier.LEFT_SHIFT, 0x09)
+                    .put('G', Modifier.LEFT_SHIFT, 0x0A)
+                    .put('H', Modifier.LEFT_SHIFT, 0x0B)
+                    .put('I', Modifier.LEFT_SHIFT, 0x0C)
+                    .put('J', Modifier.LEFT_SHIFT, 0x0D)
+                    .put('K', Modifier.LEFT_SHIFT, 0x0E)
+                    .put('L', Modifier.LEFT_SHIFT, 0x0F)
+                    .put('M', Modifier.LEFT_SHIFT, 0x10)
+                    .put('N', Modifier.LEFT_SHIFT, 0x11)
+                    .put('O', Modifier.LEFT_SHIFT, 0x12)
+                    .put('P', Modifier.LEFT_SHIFT, 0x13)
+                    .put('Q', Modifier.LEFT_SHIFT, 0x14)
+                    .put('R', Modifier.LEFT_SHIFT, 0x15)
+                    .put('S', Modifier.LEFT_SHIFT, 0x16)
+                    .put('T', Modifier.LEFT_SHIFT, 0x17)
+                    .put('U', Modifier.LEFT_SHIFT, 0x18)
+                    .put('V', Modifier.LEFT_SHIFT, 0x19)
+                    .put('W', Modifier.LEFT_SHIFT, 0x1A)
+                    .put('X', Modifier.LEFT_SHIFT, 0x1B)
+                    .put('Y', Modifier.LEFT_SHIFT, 0x1C)
+                    .put('Z', Modifier.LEFT_SHIFT, 0x1D)
+                    .put('!', Modifier.LEFT_SHIFT, 0x1E)
+                    .put('@', Modifier.LEFT_SHIFT, 0x1F)
+                    .put('#', Modifier.LEFT_SHIFT, 0x20)
+                    .put('$', Modifier.LEFT_SHIFT, 0x21)
+                    .put('%', Modifier.LEFT_SHIFT, 0x22)
+                    .put('^', Modifier.LEFT_SHIFT, 0x23)
+                    .put('&', Modifier.LEFT_SHIFT, 0x24)
+                    .put('*', Modifier.LEFT_SHIFT, 0x25)
+                    .put('(', Modifier.LEFT_SHIFT, 0x26)
+                    .put(')', Modifier.LEFT_SHIFT, 0x27)
+                    .put('_', Modifier.LEFT_SHIFT, 0x2D)
+                    .put('+', Modifier.LEFT_SHIFT, 0x2E)
+                    .put('{', Modifier.LEFT_SHIFT, 0x2F)
+                    .put('}', Modifier.LEFT_SHIFT, 0x30)
+                    .put('|', Modifier.LEFT_SHIFT, 0x31)
+                    .put(':', Modifier.LEFT_SHIFT, 0x33)
+                    .put('"', Modifier.LEFT_SHIFT, 0x34)
+                    .put('~', Modifier.LEFT_SHIFT, 0x35)
+                    .put('<', Modifier.LEFT_SHIFT, 0x36)
+                    .put('>', Modifier.LEFT_SHIFT, 0x37)
+                    .put('?', Modifier.LEFT_SHIFT, 0x38)
+                    .build();
+
+    /**
+     * German QWERTZ layout, with AltGr characters and the accents of the dead keys.
+     */
+    public static final KeyboardLayout GERMAN = createGerman();
+
+    /** Magic number at the start of the binary format: "KBL1". */
+    private static final int MAGIC = 0x4B424C31;
+
+    /** Number of characters in one page of the lookup table. */
+    private static final int PAGE_SIZE = 256;
+
+    private final String name;
+    /** Pages of {@link #PAGE_SIZE} entries indexed by the high byte of the character. */
+    private final int[][] pages;
+
+    private KeyboardLayout(String name, int[][] pages) {
+        this.name = name;
+        this.pages = pages;
+    }
+
+    /**
+     * Read a layout in the binary format, see {@link #write(OutputStream)}.
+     *
+     * @param in Stream to read the layout from, e.g. a raw resource. It is not closed.
+     * @return Compiled layout.
+     * @throws IOException if the stream couldn't be read or doesn't contain a layout.
+     */
+    public static KeyboardLayout read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a keyboard layout");
+        }
+        Builder builder = new Builder(data.readUTF());
+        int count = data.readInt();
+        if (count < 0 || count > Character.MAX_VALUE + 1) {
+            throw new IOException("Invalid number of characters: " + count);
+        }
+        for (int i = 0; i < count; i++) {
+            char key = data.readChar();
+            int entry = data.readInt();
+            if ((entry & 0xFF) == 0) {
+                throw new IOException("Missing scan code for character " + (int) key);
+            }
+            builder.putEntry(key, entry);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Write the layout in a compact binary format: the magic number "KBL1", the name in modified
+     * UTF-8, the number of characters, and for every character the UTF-16 code unit followed by
+     * its packed entry, see {@link #lookup(char)}. All numbers are big-endian.
+     *
+     * @param out Stream to write the layout to. It is not closed.
+     * @throws IOException if the stream couldn't be written.
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeUTF(name);
+        int count = 0;
+        for (int[] page : pages) {
+            if (page != null) {
+                for (int entry : page) {
+                    if (entry != 0) {
+                        count++;
+                    }
+                }
+            }
+        }
+        data.writeInt(count);
+        for (int high = 0; high < pages.length; high++) {
+            if (pages[high] == null) {
+                continue;
+            }
+            for (int low = 0; low < PAGE_SIZE; low++) {
+                int entry = pages[high][low];
+                if (entry != 0) {
+                    data.writeChar(high * PAGE_SIZE + low);
+                    data.writeInt(entry);
+                }
+            }
+        }
+        data.flush();
+    }
+
+    /**
+     * @return Name of the layout.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Find the keys that type the character.
+     *
+     * @param key Character to look up.
+     * @return Scan code in bits 0 to 7 and modifier bit mask in bits 8 to 15. If a dead key has to
+     * be typed first, its scan code and modifiers are in bits 16 to 31 in the same layout. 0 if the
+     * character can't be typed.
+     */
+    int lookup(char key) {
+        @Nullable int[] page = pages[key >>> 8];
+        return page != null ? page[key & 0xFF] : 0;
+    }
+
+    private static KeyboardLayout createGerman() {
+        Builder builder = new Builder("de");
+        for (char key = 'a'; key <= 'z'; key++) {
+            int code = 0x04 + key - 'a';
+            // Y and Z are swapped on QWERTZ.
+            if (key == 'y') {
+                code = 0x1D;
+            } else if (key == 'z') {
+                code = 0x1C;
+            }
+            builder.put(key, Modifier.NONE, code);
+            builder.put(Character.toUpperCase(key), Modifier.LEFT_SHIFT, code);
+        }
+        String digits = "1234567890";
+        // Section sign on 3.
+        String shifted = "!\"\u00A7$%&/()=";
+        for (int i = 0; i < digits.length(); i++) {
+            builder.put(digits.charAt(i), Modifier.NONE, 0x1E + i);
+            builder.put(shifted.charAt(i), Modifier.LEFT_SHIFT, 0x1E + i);
+        }
+        builder.put('\n', Modifier.NONE, 0x28)
+                .put('\t', Modifier.NONE, 0x2B)
+                .put(' ', Modifier.NONE, 0x2C)
+                .put('\u00DF', Modifier.NONE, 0x2D)
+                .put('?', Modifier.LEFT_SHIFT, 0x2D)
+                .put('\\', Modifier.RIGHT_ALT, 0x2D)
+                .put('\u00FC', Modifier.NONE, 0x2F)
+                .put('\u00DC', Modifier.LEFT_SHIFT, 0x2F)
+                .put('+', Modifier.NONE, 0x30)
+                .put('*', Modifier.LEFT_SHIFT, 0x30)
+                .put('~', Modifier.RIGHT_ALT, 0x30)
+                .put('#', Modifier.NONE, 0x32)
+                .put('\'', Modifier.LEFT_SHIFT, 0x32)
+                .put('\u00F6', Modifier.NONE, 0x33)
+                .put('\u00D6', Modifier.LEFT_SHIFT, 0x33)
+                .put('\u00E4', Modifier.NONE, 0x34)
+                .put('\u00C4', Modifier.LEFT_SHIFT, 0x34)
+                .put('\u00B0', Modifier.LEFT_SHIFT, 0x35)
+                .put(',', Modifier.NONE, 0x36)
+                .put(';', Modifier.LEFT_SHIFT, 0x36)
+                .put('.', Modifier.NONE, 0x37)
+                .put(':', Modifier.LEFT_SHIFT, 0x37)
+                .put('-', Modifier.NONE, 0x38)
+                .put('_', Modifier.LEFT_SHIFT, 0x38)
+                .put('<', Modifier.NONE, 0x64)
+                .put('>', Modifier.LEFT_SHIFT, 0x64)
+                .put('|', Modifier.RIGHT_ALT, 0x64)
+                .put('@', Modifier.RIGHT_ALT, 0x14)
+                .put('\u20AC', Modifier.RIGHT_ALT, 0x08)
+                .put('\u00B5', Modifier.RIGHT_ALT, 0x10)
+                .put('\u00B2', Modifier.RIGHT_ALT, 0x1F)
+                .put('\u00B3', Modifier.RIGHT_ALT, 0x20)
+                .put('{', Modifier.RIGHT_ALT, 0x24)
+                .put('[', Modifier.RIGHT_ALT, 0x25)
+                .put(']', Modifier.RIGHT_ALT, 0x26)
+                .put('}', Modifier.RIGHT_ALT, 0x27);
+
+        // Dead keys: circumflex left of 1, acute and grave left of backspace. Followed by space,
+        // they type the accent itself.
+        // Circumflex.
+        putAccents(builder, Modifier.NONE, 0x35, '^',
+                "\u00E2\u00EA\u00EE\u00F4\u00FB\u00C2\u00CA\u00CE\u00D4\u00DB");
+        // Acute.
+        putAccents(builder, Modifier.NONE, 0x2E, '\u00B4',
+                "\u00E1\u00E9\u00ED\u00F3\u00FA\u00C1\u00C9\u00CD\u00D3\u00DA");
+        // Grave.
+        putAccents(builder, Modifier.LEFT_SHIFT, 0x2E, '`',
+                "\u00E0\u00E8\u00EC\u00F2\u00F9\u00C0\u00C8\u00CC\u00D2\u00D9");
+        return builder.build();
+    }
+
+    /**
+     * Add the characters of a dead key, which are typed by the dead key followed by the vowel.
+     *
+     * @param accented Accented versions of "aeiouAEIOU".
+     */
+    private static void putAccents(
+            Builder builder, @Modifier int modifier, int code, char accent, String accented) {
+        String vowels = "aeiouAEIOU";
+        builder.putDead(accent, modifier, code, Modifier.NONE, 0x2C);
+        for (int i = 0; i < vowels.length(); i++) {
+            int vowel = builder.pages[0][vowels.charAt(i)];
+            builder.putDead(accented.charAt(i), modifier, code, vowel >>> 8, vowel & 0xFF);
+        }
+    }
+
+    /**
+     * Builder for the lookup table of a layout.
+     */
+    public static final class Builder {
+
+        private final String name;
+        private final int[][] pages = new int[(Character.MAX_VALUE + 1) / PAGE_SIZE][];
+
+        /**
+         * @param name Name of the layout.
+         */
+        public Builder(String name) {
+            this.name = checkNotNull(name);
+        }
+
+        /**
+         * Add a character to the layout. Characters that need AltGr use
+         * {@link Modifier#RIGHT_ALT}.
+         *
+         * @param key      Character that is typed.
+         * @param modifier Modifier keys bit mask that has to be held.
+         * @param code     Scan code of the key.
+         * @return This builder.
+         */
+        public Builder put(char key, @Modifier int modifier, int code) {
+            checkArgument(code > 0 && code <= 0xFF, "invalid scan code");
+            return putEntry(key, (modifier & 0xFF) << 8 | code);
+        }
+
+        /**
+         * Add a character that is typed with a dead key followed by another key.
+         *
+         * @param key          Character that is typed.
+         * @param deadModifier Modifier keys bit mask that has to be held for the dead key.
+         * @param deadCode     Scan code of the dead key.
+         * @param modifier     Modifier keys bit mask that has to be held for the second key.
+         * @param code         Scan code of the second key.
+         * @return This builder.
+         */
+        public Builder putDead(char key, @Modifier int deadModifier, int deadCode,
+                @Modifier int modifier, int code) {
+            checkArgument(deadCode > 0 && deadCode <= 0xFF, "invalid scan code");
+            checkArgument(code > 0 && code <= 0xFF, "invalid scan code");
+            return putEntry(key,
+                    (deadModifier & 0xFF) << 24 | deadCode << 16 | (modifier & 0xFF) << 8 | code);
+        }
+
+        private Builder putEntry(char key, int entry) {
+            int high = key >>> 8;
+            if (pages[high] == null) {
+                pages[high] = new int[PAGE_SIZE];
+            }
+            pages[high][key & 0xFF] = entry;
+            return this;
+        }
+
+        public KeyboardLayout build() {
+            int[][] copy = new int[pages.length][];
+            for (int i = 0; i < pages.length; i++) {
+                if (pages[i] != null) {
+                    copy[i] = pages[i].clone();
+                }
+            }
+            return new KeyboardLayout(name, copy);
+        }
+    }
+}
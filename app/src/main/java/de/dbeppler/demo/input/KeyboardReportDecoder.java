@@ -0,0 +1,262 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.input;
+
+import de.dbeppler.demo.bluetooth.KeyboardReport;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Rebuilds the typed text from boot keyboard reports the way a HID Host does, to verify that a
+ * typing mode doesn't lose or reorder characters. It is the inverse of {@link KeyboardHelper} for
+ * one {@link KeyboardLayout}.
+ *
+ * <p>A character is typed whenever a key appears in a report that wasn't pressed in the previous
+ * report, using the modifiers of that report. Keys that appear together are typed in slot order.
+ * Reports that signal a rollover error are ignored, like hosts do. Left and right Shift, Ctrl and
+ * GUI are treated alike, while AltGr (right Alt) stays distinct. A dead key is combined with the
+ * next typed key; if the layout has no such combination, the accent and the key are typed on their
+ * own. Keys that don't type a character of the layout, e.g. shortcuts, decode to
+ * {@link #UNKNOWN}.
+ *
+ * <p>The reverse lookup tables are built once per decoder, so decoding is a few array loads and
+ * comparisons per report without allocating. Instances keep the state of the previous report and
+ * must not be used from multiple threads at once.
+ */
+public final class KeyboardReportDecoder {
+
+    /** Character for keys that don't type anything in the layout. */
+    public static final char UNKNOWN = '\uFFFD';
+
+    /** Marks the keys in {@link #characters} that are dead keys. */
+    private static final char DEAD_KEY = '\uFFFF';
+
+    /** Space without modifiers, which types the accent of a dead key. */
+    private static final int SPACE = KeyboardHelper.Key.SPACE;
+
+    /**
+     * Position of the first character that differs from the expected text.
+     */
+    public static final class Mismatch {
+        /** Offset in the expected text. */
+        public final long textOffset;
+        /** Index of the report that typed the wrong character, or that ended the reports. */
+        public final long reportIndex;
+
+        Mismatch(long textOffset, long reportIndex) {
+            this.textOffset = textOffset;
+            this.reportIndex = reportIndex;
+        }
+
+        @Override
+        public String toString() {
+            return "Mismatch{textOffset=" + textOffset + ", reportIndex=" + reportIndex + "}";
+        }
+    }
+
+    /** Character for every modifier and scan code pair, see {@link KeyboardLayout#lookup}. */
+    private final char[] characters = new char[1 << 16];
+    /** Sorted dead key and key pairs, each in the upper bits, and the character in bits 0-15. */
+    private final long[] combinations;
+
+    /** Characters that were decoded from the current report. */
+    private final char[] decoded = new char[2 * KeyboardReport.MAX_KEYS];
+
+    /** Previous report that wasn't a rollover error. */
+    private long previous;
+    /** Dead key that waits for the next key, or 0. */
+    private int pendingDeadKey;
+
+    /**
+     * @param layout Keyboard layout that the text was typed with.
+     */
+    public KeyboardReportDecoder(KeyboardLayout layout) {
+        checkNotNull(layout);
+        Arrays.fill(characters, UNKNOWN);
+        long[] found = new long[64];
+        int count = 0;
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            int entry = layout.lookup((char) c);
+            if (entry == 0) {
+                continue;
+            }
+            int key = normalizeKey(entry & 0xFFFF);
+            int deadKey = normalizeKey(entry >>> 16);
+            if (deadKey == 0) {
+                if (characters[key] == UNKNOWN) {
+                    characters[key] = (char) c;
+                }
+                continue;
+            }
+            characters[deadKey] = DEAD_KEY;
+            if (count == found.length) {
+                found = Arrays.copyOf(found, count * 2);
+            }
+            found[count++] = ((long) deadKey << 16 | key) << 16 | c;
+        }
+        combinations = Arrays.copyOf(found, count);
+        Arrays.sort(combinations);
+    }
+
+    /**
+     * Forget the previous report, e.g. before decoding a new log.
+     */
+    public void reset() {
+        previous = 0;
+        pendingDeadKey = 0;
+    }
+
+    /**
+     * Decode binary keyboard reports, see {@link KeyboardReport#REPORT_LENGTH}, and continue the
+     * state of the previous call.
+     *
+     * @param reports Array that contains the binary reports.
+     * @param offset  Index of the first byte of the first report.
+     * @param count   Number of reports to decode.
+     * @param text    Receives the typed characters.
+     */
+    public void decode(byte[] reports, int offset, int count, StringBuilder text) {
+        checkRange(reports, offset, count);
+        for (int i = 0; i < count; i++) {
+            int decodedCount = decode(pack(reports, offset + i * KeyboardReport.REPORT_LENGTH));
+            text.append(decoded, 0, decodedCount);
+        }
+    }
+
+    /**
+     * Decode the reports from the initial state and compare them with the text they should type.
+     *
+     * @param reports  Array that contains the binary reports.
+     * @param offset   Index of the first byte of the first report.
+     * @param count    Number of reports to decode.
+     * @param expected Text that the reports should type.
+     * @return First difference, or {@code null} if the reports type exactly the expected text.
+     */
+    @Nullable
+    public Mismatch verify(byte[] reports, int offset, int count, CharSequence expected) {
+        checkRange(reports, offset, count);
+        reset();
+        int position = 0;
+        int length = expected.length();
+        for (int i = 0; i < count; i++) {
+            int decodedCount = decode(pack(reports, offset + i * KeyboardReport.REPORT_LENGTH));
+            for (int j = 0; j < decodedCount; j++) {
+                if (position == length || expected.charAt(position) != decoded[j]) {
+                    return new Mismatch(position, i);
+                }
+                position++;
+            }
+        }
+        return position == length ? null : new Mismatch(position, count);
+    }
+
+    /**
+     * Decode one packed report into {@link #decoded}.
+     *
+     * @return Number of decoded characters.
+     */
+    private int decode(long report) {
+        long keys = report >>> 16;
+        if ((keys & 0xFF) == KeyboardReport.ERROR_ROLL_OVER) {
+            return 0;
+        }
+        long previousKeys = previous >>> 16;
+        previous = report;
+        int modifier = normalize((int) report & 0xFF);
+        int count = 0;
+        for (; keys != 0; keys >>>= 8) {
+            int code = (int) keys & 0xFF;
+            if (code == 0 || isPressed(previousKeys, code)) {
+                continue;
+            }
+            count = type(modifier << 8 | code, count);
+        }
+        return count;
+    }
+
+    private int type(int key, int count) {
+        char c = characters[key];
+        if (pendingDeadKey != 0) {
+            int deadKey = pendingDeadKey;
+            pendingDeadKey = 0;
+            char combined = findCombination(deadKey, key);
+            if (combined != 0) {
+                decoded[count++] = combined;
+                return count;
+            }
+            char accent = findCombination(deadKey, SPACE);
+            decoded[count++] = accent != 0 ? accent : UNKNOWN;
+        }
+        if (c == DEAD_KEY) {
+            pendingDeadKey = key;
+            return count;
+        }
+        decoded[count++] = c;
+        return count;
+    }
+
+    private char findCombination(int deadKey, int key) {
+        long prefix = ((long) deadKey << 16 | key) << 16;
+        int index = Arrays.binarySearch(combinations, prefix);
+        // The search key has no character, so it always ends up before the matching entry.
+        int insertion = -index - 1;
+        if (index < 0 && insertion < combinations.length
+                && (combinations[insertion] & ~0xFFFFL) == prefix) {
+            return (char) combinations[insertion];
+        }
+        return 0;
+    }
+
+    private static boolean isPressed(long keys, int code) {
+        for (; keys != 0; keys >>>= 8) {
+            if ((keys & 0xFF) == code) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Map the right Shift, Ctrl and GUI to the left ones, and keep AltGr.
+     */
+    private static int normalize(int modifier) {
+        return (modifier & 0x4F) | (modifier >>> 4 & 0x0B);
+    }
+
+    private static int normalizeKey(int key) {
+        return normalize(key >>> 8) << 8 | key & 0xFF;
+    }
+
+    private static long pack(byte[] reports, int offset) {
+        long report = 0;
+        for (int i = KeyboardReport.REPORT_LENGTH - 1; i >= 0; i--) {
+            report = report << 8 | (reports[offset + i] & 0xFFL);
+        }
+        return report;
+    }
+
+    private static void checkRange(byte[] reports, int offset, int count) {
+        checkArgument(offset >= 0 && count >= 0
+                        && offset + (long) count * KeyboardReport.REPORT_LENGTH <= reports.length,
+                "reports out of range");
+    }
+}
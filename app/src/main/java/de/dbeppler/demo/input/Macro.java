@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.input;
+
+/**
+ * Keyboard macro compiled into a compact bytecode, see {@link MacroPlayer}. Every instruction is a
+ * single {@code long}. Byte 1 holds the opcode, which is the always empty reserved byte of a boot
+ * keyboard report, so a report instruction is the packed report itself:
+ *
+ * <ul>
+ * <li>{@link #OP_REPORT}: modifier in byte 0 and the six scan codes in bytes 2 to 7.</li>
+ * <li>{@link #OP_DELAY}: delay in milliseconds in bits 16 to 63.</li>
+ * <li>{@link #OP_REPEAT}: number of repetitions in bits 16 to 39 and the index of the first
+ * instruction to repeat in bits 40 to 63.</li>
+ * </ul>
+ *
+ * <p>Instances are immutable and can be played any number of times from any thread.
+ */
+public final class Macro {
+
+    static final int OP_REPORT = 0;
+    static final int OP_DELAY = 1;
+    static final int OP_REPEAT = 2;
+
+    /** Largest number of repetitions and instruction index of a repeat instruction. */
+    static final int MAX_REPEAT = 0xFFFFFF;
+
+    final long[] code;
+
+    Macro(long[] code) {
+        this.code = code;
+    }
+
+    /**
+     * Compile a script in a DuckyScript-like language. Every line holds one command:
+     *
+     * <ul>
+     * <li>{@code REM comment}: ignored, as are empty lines.</li>
+     * <li>{@code STRING text} and {@code STRINGLN text}: type the text, followed by enter for the
+     * latter. Characters that the layout can't type are skipped.</li>
+     * <li>{@code DELAY ms}: wait before the next command.</li>
+     * <li>{@code DEFAULT_DELAY ms}: wait after each of the following commands.</li>
+     * <li>{@code REPEAT n}: run the previous command another n times.</li>
+     * <li>Key combination, e.g. {@code CTRL ALT DELETE} or {@code GUI r}: press modifiers and up
+     * to six keys, then release them. Keys are names like {@code ENTER} or {@code F5}, or single
+     * characters of the layout.</li>
+     * </ul>
+     *
+     * @param script Macro script.
+     * @param layout Keyboard layout of the HID Host.
+     * @return Compiled macro.
+     * @throws IllegalArgumentException if the script contains an invalid line.
+     */
+    public static Macro compile(CharSequence script, KeyboardLayout layout) {
+        return new MacroCompiler(layout).compile(script);
+    }
+
+    /**
+     * @return Number of instructions, each of which takes eight bytes.
+     */
+    public int getInstructionCount() {
+        return code.length;
+    }
+}
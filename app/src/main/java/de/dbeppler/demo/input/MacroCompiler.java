@@ -0,0 +1,243 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.input;
+
+import de.dbeppler.demo.bluetooth.KeyboardReport;
+import de.dbeppler.demo.bluetooth.KeyboardReport.KeyboardDataSender;
+import de.dbeppler.demo.input.KeyboardHelper.Key;
+import de.dbeppler.demo.input.KeyboardHelper.Modifier;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Translates a macro script into the bytecode of a {@link Macro}, see
+ * {@link Macro#compile(CharSequence, KeyboardLayout)}. Text is typed with the
+ * {@link TypingEngine}, so it costs as few reports as {@link KeyboardHelper#sendString}.
+ *
+ * <p>Instances are used for a single script and must not be used from multiple threads at once.
+ */
+final class MacroCompiler implements KeyboardDataSender {
+
+    private static final Map<String, Integer> MODIFIERS = new HashMap<>();
+    private static final Map<String, Integer> KEYS = new HashMap<>();
+
+    static {
+        MODIFIERS.put("CTRL", Modifier.LEFT_CTRL);
+        MODIFIERS.put("CONTROL", Modifier.LEFT_CTRL);
+        MODIFIERS.put("SHIFT", Modifier.LEFT_SHIFT);
+        MODIFIERS.put("ALT", Modifier.LEFT_ALT);
+        MODIFIERS.put("ALTGR", Modifier.RIGHT_ALT);
+        MODIFIERS.put("GUI", Modifier.LEFT_GUI);
+        MODIFIERS.put("WINDOWS", Modifier.LEFT_GUI);
+        MODIFIERS.put("COMMAND", Modifier.LEFT_GUI);
+
+        KEYS.put("ENTER", Key.ENTER);
+        KEYS.put("ESC", Key.ESCAPE);
+        KEYS.put("ESCAPE", Key.ESCAPE);
+        KEYS.put("BACKSPACE", Key.BACKSPACE);
+        KEYS.put("TAB", Key.TAB);
+        KEYS.put("SPACE", Key.SPACE);
+        KEYS.put("CAPSLOCK", 0x39);
+        KEYS.put("PRINTSCREEN", 0x46);
+        KEYS.put("SCROLLLOCK", 0x47);
+        KEYS.put("PAUSE", 0x48);
+        KEYS.put("BREAK", 0x48);
+        KEYS.put("INSERT", 0x49);
+        KEYS.put("HOME", 0x4A);
+        KEYS.put("PAGEUP", 0x4B);
+        KEYS.put("DELETE", 0x4C);
+        KEYS.put("END", 0x4D);
+        KEYS.put("PAGEDOWN", 0x4E);
+        KEYS.put("RIGHT", Key.RIGHT);
+        KEYS.put("RIGHTARROW", Key.RIGHT);
+        KEYS.put("LEFT", Key.LEFT);
+        KEYS.put("LEFTARROW", Key.LEFT);
+        KEYS.put("DOWN", Key.DOWN);
+        KEYS.put("DOWNARROW", Key.DOWN);
+        KEYS.put("UP", Key.UP);
+        KEYS.put("UPARROW", Key.UP);
+        KEYS.put("MENU", 0x65);
+        KEYS.put("APP", 0x65);
+        for (int i = 1; i <= 12; i++) {
+            KEYS.put("F" + i, 0x3A + i - 1);
+        }
+    }
+
+    private final KeyboardLayout layout;
+    private final TypingEngine typingEngine = new TypingEngine(this);
+
+    private long[] code = new long[64];
+    private int length;
+
+    /**
+     * @param layout Keyboard layout of the HID Host.
+     */
+    MacroCompiler(KeyboardLayout layout) {
+        this.layout = checkNotNull(layout);
+    }
+
+    /**
+     * @param script Macro script.
+     * @return Compiled macro.
+     * @throws IllegalArgumentException if the script contains an invalid line.
+     */
+    Macro compile(CharSequence script) {
+        String[] lines = script.toString().split("\r?\n", -1);
+        long defaultDelay = 0;
+        // Start of the instructions of the previous command, or -1 if it can't be repeated.
+        int previousStart = -1;
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            int space = line.indexOf(' ');
+            String command = space < 0 ? line : line.substring(0, space);
+            String argument = space < 0 ? "" : line.substring(space + 1);
+            int start = length;
+            try {
+                switch (command) {
+                    case "":
+                    case "REM":
+                        continue;
+                    case "DEFAULT_DELAY":
+                    case "DEFAULTDELAY":
+                        defaultDelay = parseNumber(argument, Long.MAX_VALUE >>> 16);
+                        continue;
+                    case "REPEAT":
+                        if (previousStart < 0) {
+                            throw new IllegalArgumentException("nothing to repeat");
+                        }
+                        int count = (int) parseNumber(argument, Macro.MAX_REPEAT);
+                        if (count > 0) {
+                            emit((long) previousStart << 40 | (long) count << 16
+                                    | Macro.OP_REPEAT << 8);
+                        }
+                        // Repeating a repeat would need nested loop counters.
+                        previousStart = -1;
+                        continue;
+                    case "DELAY":
+                        emitDelay(parseNumber(argument, Long.MAX_VALUE >>> 16));
+                        break;
+                    case "STRING":
+                        type(argument);
+                        break;
+                    case "STRINGLN":
+                        type(argument);
+                        typingEngine.press(Modifier.NONE, Key.ENTER);
+                        typingEngine.releaseAll();
+                        break;
+                    default:
+                        pressCombination(line);
+                        break;
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(
+                        "Line " + (i + 1) + ": " + e.getMessage(), e);
+            }
+            emitDelay(defaultDelay);
+            previousStart = start < Macro.MAX_REPEAT ? start : -1;
+        }
+        return new Macro(Arrays.copyOf(code, length));
+    }
+
+    @Override
+    public void sendKeyboard(
+            int modifier, int key1, int key2, int key3, int key4, int key5, int key6) {
+        // Byte 1 stays empty, which is the report opcode.
+        emit((modifier & 0xFFL)
+                | (key1 & 0xFFL) << 16
+                | (key2 & 0xFFL) << 24
+                | (key3 & 0xFFL) << 32
+                | (key4 & 0xFFL) << 40
+                | (key5 & 0xFFL) << 48
+                | (key6 & 0xFFL) << 56);
+    }
+
+    private void type(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            int entry = layout.lookup(text.charAt(i));
+            if (entry != 0) {
+                typingEngine.type(entry);
+            }
+        }
+        typingEngine.releaseAll();
+    }
+
+    private void pressCombination(String line) {
+        int modifier = 0;
+        int[] keys = new int[KeyboardReport.MAX_KEYS];
+        int keyCount = 0;
+        for (String token : line.split("\\s+")) {
+            Integer namedModifier = MODIFIERS.get(token.toUpperCase(Locale.US));
+            if (namedModifier != null) {
+                modifier |= namedModifier;
+                continue;
+            }
+            int key = lookupKey(token);
+            if (keyCount == keys.length) {
+                throw new IllegalArgumentException("too many keys");
+            }
+            keys[keyCount++] = key;
+        }
+        sendKeyboard(modifier, keys[0], keys[1], keys[2], keys[3], keys[4], keys[5]);
+        sendKeyboard(Modifier.NONE, 0, 0, 0, 0, 0, 0);
+    }
+
+    private int lookupKey(String token) {
+        Integer key = KEYS.get(token.toUpperCase(Locale.US));
+        if (key != null) {
+            return key;
+        }
+        if (token.length() == 1) {
+            // Combinations use the key of the character, e.g. "GUI r", without its modifiers.
+            int entry = layout.lookup(token.charAt(0));
+            if (entry != 0 && entry >>> 16 == 0) {
+                return entry & 0xFF;
+            }
+        }
+        throw new IllegalArgumentException("unknown key " + token);
+    }
+
+    private static long parseNumber(String argument, long max) {
+        long value;
+        try {
+            value = Long.parseLong(argument.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid number " + argument);
+        }
+        if (value < 0 || value > max) {
+            throw new IllegalArgumentException("number out of range " + argument);
+        }
+        return value;
+    }
+
+    private void emitDelay(long millis) {
+        if (millis > 0) {
+            emit(millis << 16 | Macro.OP_DELAY << 8);
+        }
+    }
+
+    private void emit(long instruction) {
+        if (length == code.length) {
+            code = Arrays.copyOf(code, length * 2);
+        }
+        code[length++] = instruction;
+    }
+}
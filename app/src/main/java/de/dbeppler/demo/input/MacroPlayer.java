@@ -0,0 +1,120 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.input;
+
+import androidx.annotation.WorkerThread;
+
+import de.dbeppler.demo.bluetooth.Deadlines;
+import de.dbeppler.demo.bluetooth.KeyboardReport.KeyboardDataSender;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Runs compiled {@link Macro}s against a {@link KeyboardDataSender}. Playing walks the bytecode
+ * without parsing or allocating, so macros of any length cost the same per step.
+ *
+ * <p>Delays are scheduled from the end of the previous delay instead of from when the reports
+ * before them were handed over, so the time spent sending doesn't add up over long macros. Only if
+ * playing falls behind by more than {@link #MAX_LAG_MILLIS}, e.g. because the queue of the data
+ * sender backed up, the schedule starts over from the current time instead of catching up. As the
+ * data sender may queue reports, the delays are only kept on the link as long as the queue doesn't
+ * back up.
+ */
+public final class MacroPlayer {
+
+    /** How far playing may fall behind the schedule before it is given up. */
+    static final long MAX_LAG_MILLIS = 50;
+
+    private static final long MAX_LAG_NANOS = TimeUnit.MILLISECONDS.toNanos(MAX_LAG_MILLIS);
+
+    private final KeyboardDataSender dataSender;
+
+    /**
+     * @param dataSender Interface to send the Keyboard data with.
+     */
+    public MacroPlayer(KeyboardDataSender dataSender) {
+        this.dataSender = checkNotNull(dataSender);
+    }
+
+    /**
+     * Send all reports of the macro, waiting for its delays. Blocks until the last report was
+     * handed to the data sender. Interrupt the calling thread to stop playing; all keys are
+     * released in that case.
+     *
+     * @param macro Compiled macro.
+     * @throws InterruptedException if the thread was interrupted while playing.
+     */
+    @WorkerThread
+    public void play(Macro macro) throws InterruptedException {
+        long[] code = macro.code;
+        long deadline = System.nanoTime();
+        // Index of the repeat instruction whose counter is running, there is at most one.
+        int repeatIndex = -1;
+        int remaining = 0;
+        int index = 0;
+        try {
+            while (index < code.length) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                long instruction = code[index];
+                switch ((int) (instruction >>> 8) & 0xFF) {
+                    case Macro.OP_REPORT:
+                        dataSender.sendKeyboard(
+                                (int) instruction & 0xFF,
+                                (int) (instruction >>> 16) & 0xFF,
+                                (int) (instruction >>> 24) & 0xFF,
+                                (int) (instruction >>> 32) & 0xFF,
+                                (int) (instruction >>> 40) & 0xFF,
+                                (int) (instruction >>> 48) & 0xFF,
+                                (int) (instruction >>> 56) & 0xFF);
+                        index++;
+                        break;
+                    case Macro.OP_DELAY:
+                        long now = System.nanoTime();
+                        if (now - deadline > MAX_LAG_NANOS) {
+                            // Don't catch up on time that was lost, e.g. to a full queue.
+                            deadline = now;
+                        }
+                        deadline += TimeUnit.MILLISECONDS.toNanos(instruction >>> 16);
+                        Deadlines.await(deadline, Deadlines.DEFAULT_SPIN_NANOS);
+                        index++;
+                        break;
+                    case Macro.OP_REPEAT:
+                        if (repeatIndex != index) {
+                            repeatIndex = index;
+                            remaining = (int) (instruction >>> 16) & Macro.MAX_REPEAT;
+                        }
+                        if (remaining-- > 0) {
+                            index = (int) (instruction >>> 40);
+                        } else {
+                            repeatIndex = -1;
+                            index++;
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException("Invalid instruction at " + index);
+                }
+            }
+        } catch (InterruptedException e) {
+            dataSender.sendKeyboard(KeyboardHelper.Modifier.NONE, 0, 0, 0, 0, 0, 0);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.input;
+
+import de.dbeppler.demo.bluetooth.KeyboardBitmapReport;
+import de.dbeppler.demo.bluetooth.KeyboardReport;
+import de.dbeppler.demo.bluetooth.KeyboardReport.KeyboardDataSender;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Translates text into as few keyboard reports as possible by using the key rollover of the report
+ * descriptor. Every new character is pressed in addition to the keys that are already held, and
+ * the modifier byte is changed on the fly, so most characters cost a single report. All keys are
+ * only released when a key repeats or all key slots are in use.
+ *
+ * <p>If the data sender supports N-key rollover reports, consecutive characters with the same
+ * modifiers and ascending scan codes are pressed together in a single report, as the host types the
+ * new keys of a report in scan code order. The next report only holds the next run of keys, which
+ * releases the previous ones at the same time, so a release report is only needed when a key
+ * repeats. Otherwise, the boot keyboard report is used. The report type is picked again for every
+ * report; when it changes, all keys are released first.
+ *
+ * <p>Instances keep the currently held keys and must not be used from multiple threads at once.
+ */
+final class TypingEngine {
+
+    /** Number of simultaneously pressed keys that fit into a keyboard report. */
+    static final int MAX_ROLLOVER_KEYS = KeyboardReport.MAX_KEYS;
+
+    private final KeyboardDataSender dataSender;
+
+    /** Held keys, in ascending order in bitmap mode. */
+    private final int[] keys = new int[KeyboardBitmapReport.MAX_KEY + 1];
+    private int keyCount;
+    /** Number of keys at the end of {@link #keys} that are pressed but weren't sent yet. */
+    private int pendingKeys;
+    private int modifier;
+    private boolean bitmap;
+    /** Keys of the last bitmap report, which the host still holds. */
+    private long sentKeyBits;
+    private long sentKeyBitsHigh;
+
+    /**
+     * @param dataSender Interface to send the Keyboard data with.
+     */
+    TypingEngine(KeyboardDataSender dataSender) {
+        this.dataSender = checkNotNull(dataSender);
+    }
+
+    /**
+     * Press the key with the given modifiers while keeping the already held keys pressed. In
+     * bitmap mode, the report may be held back until a key follows that can't be pressed together
+     * with this one, see {@link #flush}.
+     *
+     * @param keyModifier Modifier keys bit mask that is needed to type the key.
+     * @param key         Scan code of the key.
+     */
+    void press(int keyModifier, int key) {
+        if (pendingKeys > 0) {
+            if (keyModifier == modifier && key > keys[keyCount - 1] && !wasSent(key)) {
+                keys[keyCount++] = key;
+                pendingKeys++;
+                return;
+            }
+            flush();
+        }
+        boolean useBitmap = dataSender.isKeyboardBitmapSupported()
+                && key <= KeyboardBitmapReport.MAX_KEY;
+        if (useBitmap != bitmap) {
+            // Keys that are held in one report type aren't released by the other one.
+            releaseAll();
+            bitmap = useBitmap;
+        }
+        if ((!bitmap && keyCount == MAX_ROLLOVER_KEYS) || isPressed(key)) {
+            // The host only registers a key press if the key was released before.
+            keyCount = 0;
+            sendReport();
+        }
+        modifier = keyModifier;
+        if (bitmap) {
+            // The next report releases the keys of the previous one.
+            keyCount = 0;
+            keys[keyCount++] = key;
+            pendingKeys = 1;
+        } else {
+            keys[keyCount++] = key;
+            sendReport();
+        }
+    }
+
+    /**
+     * Send the keys that were pressed together in bitmap mode, if any. Callers that may block
+     * before the next character, e.g. to read more text, flush first.
+     */
+    void flush() {
+        if (pendingKeys > 0) {
+            pendingKeys = 0;
+            sendReport();
+        }
+    }
+
+    /**
+     * Type a character of a keyboard layout. If it needs a dead key, all keys are released and the
+     * dead key is pressed and released on its own first, so the host composes it with the key.
+     *
+     * @param entry Packed keys of the character, see {@link KeyboardLayout#lookup(char)}.
+     */
+    void type(int entry) {
+        int deadKey = entry >>> 16;
+        if (deadKey != 0) {
+            releaseAll();
+            press(deadKey >>> 8, deadKey & 0xFF);
+            releaseAll();
+        }
+        press((entry >>> 8) & 0xFF, entry & 0xFF);
+    }
+
+    /**
+     * Send the pending keys, then release all keys and modifiers, if anything is held.
+     */
+    void releaseAll() {
+        flush();
+        if (keyCount == 0 && modifier == KeyboardHelper.Modifier.NONE) {
+            return;
+        }
+        keyCount = 0;
+        modifier = KeyboardHelper.Modifier.NONE;
+        sendReport();
+    }
+
+    private boolean isPressed(int key) {
+        for (int i = 0; i < keyCount; i++) {
+            if (keys[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean wasSent(int key) {
+        long bits = key < Long.SIZE ? sentKeyBits : sentKeyBitsHigh;
+        return (bits & 1L << key) != 0;
+    }
+
+    private void sendReport() {
+        if (!bitmap) {
+            dataSender.sendKeyboard(
+                    modifier, key(0), key(1), key(2), key(3), key(4), key(5));
+            return;
+        }
+        long keyBits = 0;
+        long keyBitsHigh = 0;
+        for (int i = 0; i < keyCount; i++) {
+            if (keys[i] < Long.SIZE) {
+                keyBits |= 1L << keys[i];
+            } else {
+                keyBitsHigh |= 1L << (keys[i] - Long.SIZE);
+            }
+        }
+        sentKeyBits = keyBits;
+        sentKeyBitsHigh = keyBitsHigh;
+        dataSender.sendKeyboardBitmap(modifier, keyBits, keyBitsHigh);
+    }
+
+    private int key(int index) {
+        return index < keyCount ? keys[index] : 0;
+    }
+}
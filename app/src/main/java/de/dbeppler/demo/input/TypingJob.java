@@ -0,0 +1,79 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.input;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Progress and cancellation of typing a text stream, see
+ * {@link KeyboardHelper#sendText(java.io.Reader, TypingJob)}. The offset can be read from any
+ * thread while the text is typed, and a job that was cancelled can be resumed by starting a new
+ * one at its offset with a fresh stream of the same text.
+ */
+public final class TypingJob {
+
+    private final long startOffset;
+    private volatile long offset;
+    private volatile boolean cancelled;
+
+    public TypingJob() {
+        this(0);
+    }
+
+    /**
+     * @param startOffset Number of characters at the start of the stream that were already typed
+     *                    and are skipped.
+     */
+    public TypingJob(long startOffset) {
+        checkArgument(startOffset >= 0, "offset must not be negative");
+        this.startOffset = startOffset;
+        this.offset = startOffset;
+    }
+
+    /**
+     * Stop typing after the current character. All keys are released before
+     * {@link KeyboardHelper#sendText} returns.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return {@code true} if {@link #cancel()} was called.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Get the number of characters of the stream that were handed to the data sender, including
+     * the skipped ones. Characters without a scan code count as typed.
+     *
+     * @return Offset to resume typing at.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    long getStartOffset() {
+        return startOffset;
+    }
+
+    void setOffset(long offset) {
+        this.offset = offset;
+    }
+}
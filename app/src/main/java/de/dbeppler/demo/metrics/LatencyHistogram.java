@@ -0,0 +1,190 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Histogram of latencies in nanoseconds that can be recorded from any thread without locking or
+ * allocating. Values are counted in log-linear buckets: every power of two is split into 16
+ * buckets, so reported percentiles are at most 6.25% above the recorded values.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Count a latency.
+     *
+     * @param nanos Latency in nanoseconds, negative values are counted as 0.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketOf(nanos));
+        long currentMax;
+        while (nanos > (currentMax = max.get())) {
+            if (max.compareAndSet(currentMax, nanos)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return Copy of the current counts.
+     */
+    public Snapshot snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return new Snapshot(snapshot, max.get());
+    }
+
+    /**
+     * Take a snapshot and start counting from zero, e.g. at the start of a new session. Values that
+     * are recorded concurrently end up in either the snapshot or the next one, but never get lost.
+     *
+     * @return Counts since the last reset.
+     */
+    public Snapshot snapshotAndReset() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.getAndSet(i, 0);
+        }
+        return new Snapshot(snapshot, max.getAndSet(0));
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Immutable copy of a histogram's counts.
+     */
+    public static final class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long max;
+
+        private Snapshot(long[] counts, long max) {
+            this.counts = counts;
+            this.max = max;
+            long sum = 0;
+            for (long c : counts) {
+                sum += c;
+            }
+            this.count = sum;
+        }
+
+        /**
+         * @return Number of recorded values.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return Largest recorded value in nanoseconds, or 0 if nothing was recorded.
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Get the value that the given fraction of all recorded values doesn't exceed.
+         *
+         * @param percentile Percentile between 0 and 100.
+         * @return Value in nanoseconds, or 0 if nothing was recorded.
+         */
+        public long getPercentile(double percentile) {
+            checkArgument(percentile >= 0 && percentile <= 100, "invalid percentile");
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueIn(i), max);
+                }
+            }
+            return max;
+        }
+
+        public long getP50() {
+            return getPercentile(50);
+        }
+
+        public long getP99() {
+            return getPercentile(99);
+        }
+
+        public long getP999() {
+            return getPercentile(99.9);
+        }
+
+        /**
+         * Combine the counts of two snapshots, e.g. from different threads or sessions.
+         *
+         * @param other Snapshot to add.
+         * @return New snapshot with the counts of both.
+         */
+        public Snapshot merge(Snapshot other) {
+            long[] merged = Arrays.copyOf(counts, counts.length);
+            for (int i = 0; i < merged.length; i++) {
+                merged[i] += other.counts[i];
+            }
+            return new Snapshot(merged, Math.max(max, other.max));
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count
+                    + " p50=" + getP50()
+                    + " p99=" + getP99()
+                    + " p999=" + getP999()
+                    + " max=" + max;
+        }
+    }
+}
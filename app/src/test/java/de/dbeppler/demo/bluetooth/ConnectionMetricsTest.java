@@ -0,0 +1,90 @@
+package de.dbeppler.demo.bluetooth;
+
+import android.bluetooth.BluetoothProfile;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionMetricsTest {
+
+    private static final String HOST = "00:11:22:33:44:55";
+
+    private final ConnectionMetrics metrics = new ConnectionMetrics();
+
+    @Test
+    public void snapshot_timesPhases() throws InterruptedException {
+        metrics.onServiceRequested();
+        metrics.onServiceConnected();
+        metrics.onAppRegisterRequested();
+        metrics.onAppRegistered();
+        metrics.onConnectRequested(HOST);
+        metrics.onConnectionStateChanged(HOST, BluetoothProfile.STATE_CONNECTING);
+        Thread.sleep(2);
+        metrics.onConnectionStateChanged(HOST, BluetoothProfile.STATE_CONNECTED);
+
+        ConnectionMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(1, snapshot.getServiceConnectLatency().getCount());
+        assertEquals(1, snapshot.getAppRegisterLatency().getCount());
+        assertEquals(1, snapshot.getConnectLatency().getCount());
+        assertTrue(snapshot.getConnectLatency().getMax() >= 2_000_000);
+        assertEquals(1, snapshot.getConnectAttempts());
+        assertEquals(1, snapshot.getConnections());
+        assertTrue(snapshot.getConnectingNanos() >= 2_000_000);
+    }
+
+    @Test
+    public void onConnectCancelled_doesNotTimeAlreadyConnectedDevice() {
+        metrics.onConnectionStateChanged(HOST, BluetoothProfile.STATE_CONNECTED);
+        metrics.onConnectRequested(HOST);
+        metrics.onConnectCancelled(HOST);
+        // Much later, the host connects again on its own.
+        metrics.onConnectionStateChanged(HOST, BluetoothProfile.STATE_DISCONNECTED);
+        metrics.onConnectionStateChanged(HOST, BluetoothProfile.STATE_CONNECTED);
+
+        ConnectionMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(0, snapshot.getConnectAttempts());
+        assertEquals(0, snapshot.getConnectLatency().getCount());
+        assertEquals(0, snapshot.getFailedConnects());
+    }
+
+    @Test
+    public void onConnectCancelled_endsPhaseWhenRequestIsSkipped() {
+        metrics.onConnectRequested(HOST);
+        // The profile doesn't issue the request, e.g. as the host doesn't support it.
+        metrics.onConnectCancelled(HOST);
+        // Cancelling a phase that isn't running changes nothing.
+        metrics.onConnectCancelled(HOST);
+        metrics.onConnectRequested(HOST);
+        metrics.onConnectionStateChanged(HOST, BluetoothProfile.STATE_CONNECTED);
+
+        ConnectionMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(1, snapshot.getConnectAttempts());
+        assertEquals(1, snapshot.getConnectLatency().getCount());
+    }
+
+    @Test
+    public void snapshot_countsFailuresAndReconnects() {
+        metrics.onConnectRequested(HOST);
+        metrics.onConnectionStateChanged(HOST, BluetoothProfile.STATE_CONNECTING);
+        metrics.onConnectionStateChanged(HOST, BluetoothProfile.STATE_DISCONNECTED);
+        metrics.onConnectRequested(HOST);
+        metrics.onConnectionStateChanged(HOST, BluetoothProfile.STATE_CONNECTED);
+        metrics.onConnectionStateChanged(HOST, BluetoothProfile.STATE_DISCONNECTING);
+        metrics.onConnectionStateChanged(HOST, BluetoothProfile.STATE_DISCONNECTED);
+        // The host connects again on its own.
+        metrics.onConnectionStateChanged(HOST, BluetoothProfile.STATE_CONNECTED);
+
+        ConnectionMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.getConnectAttempts());
+        assertEquals(1, snapshot.getFailedConnects());
+        assertEquals(2, snapshot.getConnections());
+        assertEquals(1, snapshot.getReconnects());
+        assertEquals(1, snapshot.getDisconnects());
+        assertEquals(1, snapshot.getConnectLatency().getCount());
+
+        metrics.reset();
+        assertEquals(0, metrics.snapshot().getConnections());
+    }
+}
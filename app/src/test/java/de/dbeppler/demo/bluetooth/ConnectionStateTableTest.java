@@ -0,0 +1,114 @@
+package de.dbeppler.demo.bluetooth;
+
+import android.bluetooth.BluetoothProfile;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ConnectionStateTableTest {
+
+    private static final String HOST = "00:11:22:33:44:55";
+    private static final String OTHER = "66:77:88:99:AA:BB";
+
+    private static final int[] CONNECTED = {BluetoothProfile.STATE_CONNECTED};
+    private static final int[] ACTIVE = {
+            BluetoothProfile.STATE_CONNECTED,
+            BluetoothProfile.STATE_CONNECTING,
+            BluetoothProfile.STATE_DISCONNECTING
+    };
+
+    @Test
+    public void update_keepsOrderDevicesWereFirstSeenIn() {
+        ConnectionStateTable<String> table = new ConnectionStateTable<>(device -> device);
+
+        table.update(HOST, BluetoothProfile.STATE_CONNECTING);
+        table.update(OTHER, BluetoothProfile.STATE_CONNECTED);
+        table.update(HOST, BluetoothProfile.STATE_CONNECTED);
+
+        assertEquals(Arrays.asList(HOST, OTHER), table.getDevicesMatchingStates(CONNECTED));
+    }
+
+    @Test
+    public void update_removesDisconnectedDevices() {
+        ConnectionStateTable<String> table = new ConnectionStateTable<>(device -> device);
+        table.update(HOST, BluetoothProfile.STATE_CONNECTED);
+        table.update(OTHER, BluetoothProfile.STATE_CONNECTED);
+
+        table.update(HOST, BluetoothProfile.STATE_DISCONNECTED);
+        assertEquals(BluetoothProfile.STATE_DISCONNECTED, table.getState(HOST));
+        // A device that comes back is seen last.
+        table.update(HOST, BluetoothProfile.STATE_CONNECTING);
+
+        assertEquals(Arrays.asList(OTHER, HOST), table.getDevicesMatchingStates(ACTIVE));
+        assertEquals(BluetoothProfile.STATE_CONNECTING, table.getState(HOST));
+    }
+
+    @Test
+    public void getDevicesMatchingStates_returnsDevicesInAnyOfTheStates() {
+        ConnectionStateTable<String> table = new ConnectionStateTable<>(device -> device);
+        table.update(HOST, BluetoothProfile.STATE_DISCONNECTING);
+        table.update(OTHER, BluetoothProfile.STATE_CONNECTED);
+
+        assertEquals(Collections.singletonList(OTHER), table.getDevicesMatchingStates(CONNECTED));
+        assertEquals(Arrays.asList(HOST, OTHER), table.getDevicesMatchingStates(ACTIVE));
+        assertEquals(Collections.emptyList(), table.getDevicesMatchingStates(
+                new int[]{BluetoothProfile.STATE_CONNECTING}));
+    }
+
+    @Test
+    public void clear_forgetsAllDevices() {
+        ConnectionStateTable<String> table = new ConnectionStateTable<>(device -> device);
+        table.update(HOST, BluetoothProfile.STATE_CONNECTED);
+
+        table.clear();
+
+        assertEquals(BluetoothProfile.STATE_DISCONNECTED, table.getState(HOST));
+        assertEquals(Collections.emptyList(), table.getDevicesMatchingStates(ACTIVE));
+    }
+
+    @Test
+    public void replaceWith_copiesStatesInTheirOrder() {
+        ConnectionStateTable<String> table = new ConnectionStateTable<>(device -> device);
+        table.update(HOST, BluetoothProfile.STATE_CONNECTING);
+        ConnectionStateTable<String> fetched = new ConnectionStateTable<>(device -> device);
+        fetched.update(OTHER, BluetoothProfile.STATE_CONNECTED);
+        fetched.update(HOST, BluetoothProfile.STATE_CONNECTED);
+
+        table.replaceWith(fetched);
+        fetched.clear();
+
+        assertEquals(Arrays.asList(OTHER, HOST), table.getDevicesMatchingStates(CONNECTED));
+    }
+
+    @Test
+    public void replaceWith_neverShowsEmptyTableWhileReconciling() throws InterruptedException {
+        ConnectionStateTable<String> table = new ConnectionStateTable<>(device -> device);
+        table.update(HOST, BluetoothProfile.STATE_CONNECTED);
+        ConnectionStateTable<String> fetched = new ConnectionStateTable<>(device -> device);
+        fetched.update(HOST, BluetoothProfile.STATE_CONNECTED);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicBoolean sawEmpty = new AtomicBoolean();
+        Thread reader = new Thread(() -> {
+            while (running.get()) {
+                if (table.getDevicesMatchingStates(CONNECTED).isEmpty()) {
+                    sawEmpty.set(true);
+                }
+            }
+        });
+        reader.start();
+
+        for (int i = 0; i < 10_000; i++) {
+            table.replaceWith(fetched);
+        }
+        running.set(false);
+        reader.join();
+
+        assertFalse(sawEmpty.get());
+    }
+}
@@ -0,0 +1,464 @@
+package de.dbeppler.demo.bluetooth;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+
+import de.dbeppler.demo.input.KeyboardHelper;
+import de.dbeppler.demo.input.KeyboardLayout;
+import de.dbeppler.demo.input.KeyboardReportDecoder;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HidDataSenderTest {
+
+    @Test
+    public void sendString_reachesLoopbackHost() throws InterruptedException {
+        CountDownLatch reports = new CountDownLatch(14);
+        LoopbackHidHost host = new LoopbackHidHost.Builder()
+                .setLatency(100, TimeUnit.MICROSECONDS)
+                .setReportListener((id, data) -> {
+                    assertEquals(Constants.ID_KEYBOARD, id);
+                    assertEquals(KeyboardReport.REPORT_LENGTH, data.length);
+                    reports.countDown();
+                })
+                .build();
+        HidDataSender hidDataSender = HidDataSender.createForTransport(host);
+        assertTrue(hidDataSender.isConnected());
+
+        new KeyboardHelper(hidDataSender).sendString("TestMessage");
+
+        assertTrue(reports.await(5, TimeUnit.SECONDS));
+        assertEquals(14, host.getReceivedReports());
+    }
+
+    @Test
+    public void sendString_pressesAllKeysInBitmapReports() throws InterruptedException {
+        List<byte[]> reports = new CopyOnWriteArrayList<>();
+        LoopbackHidHost host = new LoopbackHidHost.Builder()
+                .setReportListener((id, data) -> {
+                    assertEquals(Constants.ID_KEYBOARD_BITMAP, id);
+                    reports.add(data.clone());
+                })
+                .build();
+        HidDataSender hidDataSender = HidDataSender.createForTransport(host);
+        hidDataSender.setPacingEnabled(false);
+        hidDataSender.setKeyboardBitmapEnabled(true);
+
+        // Eight ascending keys are pressed in a single report, then released once.
+        new KeyboardHelper(hidDataSender).sendString("abcdefgh");
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (reports.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(2, reports.size());
+        byte[] allPressed = reports.get(0);
+        assertEquals(KeyboardBitmapReport.REPORT_LENGTH, allPressed.length);
+        // Scan codes 4 to 11 are bits 4 to 11 of the bitmap after the modifier byte.
+        assertEquals((byte) 0xF0, allPressed[1]);
+        assertEquals((byte) 0x0F, allPressed[2]);
+        assertArrayEquals(new byte[KeyboardBitmapReport.REPORT_LENGTH], reports.get(1));
+    }
+
+    @Test
+    public void sendKeyboardBitmap_fallsBackToSixKeyRollover() throws Exception {
+        List<byte[]> reports = new CopyOnWriteArrayList<>();
+        LoopbackHidHost host = new LoopbackHidHost.Builder()
+                .setReportListener((id, data) -> {
+                    assertEquals(Constants.ID_KEYBOARD, id);
+                    reports.add(data.clone());
+                })
+                .build();
+        HidDataSender hidDataSender = HidDataSender.createForTransport(host);
+        hidDataSender.setPacingEnabled(false);
+
+        // Eight keys in one bitmap report, but the host only takes boot reports.
+        hidDataSender.sendKeyboardBitmap(0, 0xFF0L, 0);
+        hidDataSender.sendKeyboardBitmap(0, 0, 0);
+        hidDataSender.submitKeyboard(0, 0, 0, 0, 0, 0, 0).get(5, TimeUnit.SECONDS);
+
+        // All keys are released when the report type changes, then six keys fit per report.
+        assertEquals(5, reports.size());
+        assertArrayEquals(new byte[]{0, 0, 4, 5, 6, 7, 8, 9}, reports.get(1));
+        assertArrayEquals(new byte[]{0, 0, 10, 11, 0, 0, 0, 0}, reports.get(2));
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        for (byte[] report : reports) {
+            received.write(report);
+        }
+        assertNull(new KeyboardReportDecoder(KeyboardLayout.US)
+                .verify(received.toByteArray(), 0, reports.size(), "abcdefgh"));
+    }
+
+    @Test
+    public void sendKeyboardBitmap_pacesEachBootReportOfTheFallback() throws Exception {
+        FakeClock clock = new FakeClock();
+        List<Long> sendTimes = new CopyOnWriteArrayList<>();
+        LoopbackHidHost host = new LoopbackHidHost.Builder()
+                .setReportListener((id, data) -> sendTimes.add(clock.now))
+                .build();
+        HidDataSender hidDataSender = HidDataSender.createForTransport(host, new ReportPacer(
+                Constants.QOS_TOKEN_RATE, Constants.QOS_TOKEN_BUCKET_SIZE, clock));
+
+        // One bitmap report of eight keys goes out as a release and two boot reports.
+        hidDataSender.sendKeyboardBitmap(0, 0xFF0L, 0);
+        hidDataSender.submitKeyboard(0, 0, 0, 0, 0, 0, 0).get(5, TimeUnit.SECONDS);
+
+        // The full bucket covers the first report, the other two wait for their own tokens.
+        long nanosPerToken = TimeUnit.SECONDS.toNanos(1) / Constants.QOS_TOKEN_RATE;
+        assertEquals(Arrays.asList(0L, 3 * nanosPerToken, 12 * nanosPerToken),
+                sendTimes.subList(0, 3));
+    }
+
+    @Test
+    public void submitKeyboardReports_succeedsWhenAllReportsAreAccepted() throws Exception {
+        LoopbackHidHost host = new LoopbackHidHost.Builder().build();
+        HidDataSender hidDataSender = HidDataSender.createForTransport(host);
+        hidDataSender.setPacingEnabled(false);
+
+        byte[] reports = new byte[3 * KeyboardReport.REPORT_LENGTH];
+        hidDataSender.submitKeyboardReports(reports, 0, 3).get(5, TimeUnit.SECONDS);
+
+        assertEquals(3, host.getReceivedReports());
+    }
+
+    @Test
+    public void submitKeyboardReports_releasesKeysOfPartiallyQueuedBatch() throws Exception {
+        List<byte[]> reports = new CopyOnWriteArrayList<>();
+        LoopbackHidHost host = new LoopbackHidHost.Builder()
+                .setLatency(20, TimeUnit.MILLISECONDS)
+                .setReportListener((id, data) -> reports.add(data.clone()))
+                .build();
+        HidDataSender hidDataSender = HidDataSender.createForTransport(host);
+        hidDataSender.setPacingEnabled(false);
+        hidDataSender.setMaxPendingReports(1);
+        hidDataSender.setOverflowPolicy(HidDataSender.OverflowPolicy.FAIL);
+
+        byte[] presses = new byte[5 * KeyboardReport.REPORT_LENGTH];
+        for (int i = 0; i < 5; i++) {
+            presses[i * KeyboardReport.REPORT_LENGTH + 2] = (byte) (4 + i);
+        }
+        try {
+            hidDataSender.submitKeyboardReports(presses, 0, 5).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals(ReportDeliveryException.Reason.DROPPED,
+                    ((ReportDeliveryException) e.getCause()).getReason());
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline && (reports.isEmpty()
+                || reports.get(reports.size() - 1)[2] != 0)) {
+            Thread.sleep(1);
+        }
+        assertTrue(reports.size() > 1 && reports.size() < 5);
+        assertArrayEquals(new byte[KeyboardReport.REPORT_LENGTH], reports.get(reports.size() - 1));
+    }
+
+    @Test
+    public void submitKeyboard_failsWhenTransportRejectsReport() throws Exception {
+        LoopbackHidHost host = new LoopbackHidHost.Builder().setDropRate(1).build();
+        HidDataSender hidDataSender = HidDataSender.createForTransport(host);
+        hidDataSender.setPacingEnabled(false);
+
+        try {
+            hidDataSender.submitKeyboard(0, 4, 0, 0, 0, 0, 0).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals(ReportDeliveryException.Reason.REJECTED,
+                    ((ReportDeliveryException) e.getCause()).getReason());
+        }
+    }
+
+    @Test
+    public void submitKeyboard_keepsReportWhenLinkDropsBeforeDisconnectionIsReported()
+            throws Exception {
+        CountDownLatch attempted = new CountDownLatch(1);
+        HidTransport dropped = new HidTransport() {
+            @Override
+            public boolean sendReport(int id, byte[] data) {
+                attempted.countDown();
+                return false;
+            }
+
+            @Override
+            public boolean replyReport(byte type, byte id, byte[] data) {
+                return false;
+            }
+
+            @Override
+            public boolean reportError(byte error) {
+                return false;
+            }
+
+            @Override
+            public boolean isConnected() {
+                return false;
+            }
+        };
+        HidDataSender hidDataSender = HidDataSender.createForTransport(dropped);
+        hidDataSender.setPacingEnabled(false);
+
+        ListenableFuture<Void> kept = hidDataSender.submitKeyboard(0, 4, 0, 0, 0, 0, 0);
+        assertTrue(attempted.await(5, TimeUnit.SECONDS));
+        // The disconnection is reported after the transport failed.
+        hidDataSender.setTransport(null);
+        assertTrue(hidDataSender.isReconnecting());
+        assertFalse(kept.isDone());
+
+        hidDataSender.setTransport(new LoopbackHidHost.Builder().build());
+        kept.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void submitKeyboardReports_resumesOnceAfterLinkLoss() throws Exception {
+        List<byte[]> reports = new CopyOnWriteArrayList<>();
+        LoopbackHidHost host = new LoopbackHidHost.Builder()
+                .setReportListener((id, data) -> {
+                    if (id == Constants.ID_KEYBOARD) {
+                        reports.add(data.clone());
+                    }
+                })
+                .build();
+        HidDataSender hidDataSender = HidDataSender.createForTransport(host);
+        hidDataSender.setPacingEnabled(false);
+
+        // "a" is held when the link drops.
+        hidDataSender.submitKeyboard(0, 4, 0, 0, 0, 0, 0).get(5, TimeUnit.SECONDS);
+        hidDataSender.setTransport(null);
+        assertFalse(hidDataSender.isConnected());
+        assertTrue(hidDataSender.isReconnecting());
+
+        // "b" is pressed while "a" is still held, then both are released.
+        byte[] rollover = new byte[2 * KeyboardReport.REPORT_LENGTH];
+        rollover[2] = 4;
+        rollover[3] = 5;
+        ListenableFuture<Void> kept = hidDataSender.submitKeyboardReports(rollover, 0, 2);
+        Thread.sleep(50);
+        assertFalse(kept.isDone());
+        assertEquals(1, reports.size());
+
+        hidDataSender.setTransport(host);
+        kept.get(5, TimeUnit.SECONDS);
+
+        assertFalse(hidDataSender.isReconnecting());
+        assertEquals(4, reports.size());
+        // All keys are released first, and "a" isn't pressed again.
+        assertArrayEquals(new byte[KeyboardReport.REPORT_LENGTH], reports.get(1));
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        for (byte[] report : reports) {
+            received.write(report);
+        }
+        assertNull(new KeyboardReportDecoder(KeyboardLayout.US)
+                .verify(received.toByteArray(), 0, reports.size(), "ab"));
+    }
+
+    @Test
+    public void closeTransport_doesNotReconnectHostThatDisconnectedOnPurpose() throws Exception {
+        ManualEventLoop eventLoop = new ManualEventLoop();
+        HidDataSender hidDataSender = new HidDataSender(new HidDeviceApp(Runnable::run),
+                new HidDeviceProfile(null, Runnable::run), eventLoop, Runnable::run);
+        hidDataSender.setTransport(new LoopbackHidHost.Builder().build());
+
+        hidDataSender.closeTransport();
+
+        assertFalse(hidDataSender.isConnected());
+        assertFalse(hidDataSender.isReconnecting());
+        assertNull(eventLoop.delayed);
+        try {
+            hidDataSender.submitKeyboard(0, 4, 0, 0, 0, 0, 0).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals(ReportDeliveryException.Reason.NOT_CONNECTED,
+                    ((ReportDeliveryException) e.getCause()).getReason());
+        }
+    }
+
+    @Test
+    public void setTransport_schedulesReconnectOnEventLoopUntilGivenUp() {
+        ManualEventLoop eventLoop = new ManualEventLoop();
+        HidDataSender hidDataSender = new HidDataSender(new HidDeviceApp(Runnable::run),
+                new HidDeviceProfile(null, Runnable::run), eventLoop, Runnable::run);
+        hidDataSender.setTransport(new LoopbackHidHost.Builder().build());
+
+        hidDataSender.setTransport(null);
+        while (eventLoop.delayed != null) {
+            Runnable command = eventLoop.delayed;
+            eventLoop.delayed = null;
+            command.run();
+        }
+
+        assertEquals(Arrays.asList(500L, 1000L, 2000L, 4000L, 8000L, 16000L, 16000L, 16000L),
+                eventLoop.delays);
+        assertFalse(hidDataSender.isReconnecting());
+    }
+
+    @Test
+    public void setTransport_cancelsScheduledReconnectWhenLinkIsBack() {
+        ManualEventLoop eventLoop = new ManualEventLoop();
+        HidDataSender hidDataSender = new HidDataSender(new HidDeviceApp(Runnable::run),
+                new HidDeviceProfile(null, Runnable::run), eventLoop, Runnable::run);
+        LoopbackHidHost host = new LoopbackHidHost.Builder().build();
+        hidDataSender.setTransport(host);
+
+        hidDataSender.setTransport(null);
+        assertTrue(hidDataSender.isReconnecting());
+        hidDataSender.setTransport(host);
+
+        assertFalse(hidDataSender.isReconnecting());
+        assertNull(eventLoop.delayed);
+    }
+
+    @Test
+    public void register_runsConnectionManagementOnEventLoopInCallOrder() {
+        RecordingEventLoop eventLoop = new RecordingEventLoop();
+        List<Runnable> mainThread = new ArrayList<>();
+        List<String> calls = new ArrayList<>();
+        HidDeviceProfile hidDeviceProfile = new HidDeviceProfile(null, eventLoop) {
+            @Override
+            void registerServiceListener(Context context, ServiceStateListener listener) {
+                calls.add("registerServiceListener");
+                // The profile proxy connects right away.
+                listener.onServiceStateChanged(null);
+            }
+
+            @Override
+            List<BluetoothDevice> getDevicesMatchingConnectionStates(int[] states) {
+                calls.add("updateDeviceList");
+                return super.getDevicesMatchingConnectionStates(states);
+            }
+
+            @Override
+            void unregisterServiceListener() {
+                calls.add("unregisterServiceListener");
+                super.unregisterServiceListener();
+            }
+        };
+        HidDataSender hidDataSender = new HidDataSender(new HidDeviceApp(eventLoop),
+                hidDeviceProfile, eventLoop, mainThread::add);
+        List<BluetoothProfile> serviceStates = new ArrayList<>();
+        HidDataSender.ProfileListener listener = new HidDataSender.ProfileListener() {
+            @Override
+            public void onDeviceStateChanged(BluetoothDevice device, int state) {
+            }
+
+            @Override
+            public void onAppUnregistered() {
+            }
+
+            @Override
+            public void onServiceStateChanged(BluetoothProfile proxy) {
+                serviceStates.add(proxy);
+            }
+        };
+
+        hidDataSender.register(null, listener);
+        hidDataSender.requestConnect(null);
+        // Nothing runs on the calling thread.
+        assertTrue(calls.isEmpty());
+        eventLoop.runAll();
+        hidDataSender.unregister(listener);
+        eventLoop.runAll();
+
+        assertEquals(Arrays.asList("registerServiceListener", "updateDeviceList",
+                "updateDeviceList", "unregisterServiceListener"), calls);
+        // The listener was registered when the service connected, so it gets the callback on the
+        // main thread even though it was unregistered in the meantime.
+        assertTrue(serviceStates.isEmpty());
+        assertEquals(1, mainThread.size());
+        mainThread.get(0).run();
+        assertEquals(1, serviceStates.size());
+    }
+
+    /**
+     * Clock that only moves when the pacer waits for it.
+     */
+    private static final class FakeClock implements ReportPacer.Clock {
+
+        volatile long now;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        @Override
+        public void await(long deadline) {
+            now = Math.max(now, deadline);
+        }
+    }
+
+    /**
+     * Keeps all commands until the test runs them.
+     */
+    private static final class RecordingEventLoop implements EventLoop {
+
+        final List<Runnable> commands = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            commands.add(command);
+        }
+
+        @Override
+        public void executeDelayed(Runnable command, long delayMillis) {
+            commands.add(command);
+        }
+
+        @Override
+        public void cancel(Runnable command) {
+            commands.remove(command);
+        }
+
+        void runAll() {
+            while (!commands.isEmpty()) {
+                commands.remove(0).run();
+            }
+        }
+    }
+
+    /**
+     * Runs commands right away, and keeps the last delayed one until the test runs it.
+     */
+    private static final class ManualEventLoop implements EventLoop {
+
+        final List<Long> delays = new ArrayList<>();
+        Runnable delayed;
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void executeDelayed(Runnable command, long delayMillis) {
+            delays.add(delayMillis);
+            delayed = command;
+        }
+
+        @Override
+        public void cancel(Runnable command) {
+            if (delayed == command) {
+                delayed = null;
+            }
+        }
+    }
+}
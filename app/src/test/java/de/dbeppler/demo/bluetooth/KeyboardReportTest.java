@@ -0,0 +1,28 @@
+package de.dbeppler.demo.bluetooth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class KeyboardReportTest {
+
+    @Test
+    public void getReport_copiesLastValue() {
+        KeyboardReport keyboardReport = new KeyboardReport();
+        byte[] sent = keyboardReport.setValue(0x02, 0x04, 0x05, 0x06, 0x07, 0x08, 0xE0);
+
+        byte[] reply = new byte[KeyboardReport.REPORT_LENGTH];
+        keyboardReport.getReport(reply);
+
+        assertArrayEquals(new byte[]{0x02, 0, 0x04, 0x05, 0x06, 0x07, 0x08, (byte) 0xE0}, reply);
+        assertArrayEquals(sent, reply);
+    }
+
+    @Test
+    public void pack_matchesBinaryLayout() {
+        byte[] report = {0x20, 0, 0x1E, 0x1F, 0x20, 0x21, 0x22, 0x23};
+        assertArrayEquals(
+                report,
+                new KeyboardReport().setValue(KeyboardReport.pack(report, 0)));
+    }
+}
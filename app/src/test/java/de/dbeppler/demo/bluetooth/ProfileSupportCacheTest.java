@@ -0,0 +1,61 @@
+package de.dbeppler.demo.bluetooth;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProfileSupportCacheTest {
+
+    private static final String HOST = "00:11:22:33:44:55";
+    private static final String OTHER = "66:77:88:99:AA:BB";
+
+    @Test
+    public void isSupported_checksEachDeviceOnce() {
+        ProfileSupportCache cache = new ProfileSupportCache();
+        List<String> checks = new ArrayList<>();
+
+        assertTrue(cache.isSupported(HOST, address -> checks.add(address)));
+        assertTrue(cache.isSupported(HOST, address -> checks.add(address)));
+        assertFalse(cache.isSupported(OTHER, address -> !checks.add(address)));
+
+        assertEquals(2, checks.size());
+    }
+
+    @Test
+    public void onUuidsChanged_keepsResultIfUuidsAnswerTheSame() {
+        ProfileSupportCache cache = new ProfileSupportCache();
+        cache.isSupported(HOST, address -> true);
+
+        cache.onUuidsChanged(HOST, true);
+
+        assertTrue(cache.isSupported(HOST, address -> false));
+    }
+
+    @Test
+    public void onUuidsChanged_dropsResultIfUuidsAnswerDifferently() {
+        ProfileSupportCache cache = new ProfileSupportCache();
+        cache.isSupported(HOST, address -> true);
+
+        cache.onUuidsChanged(HOST, false);
+        // Devices that were never checked aren't added.
+        cache.onUuidsChanged(OTHER, false);
+
+        assertFalse(cache.isSupported(HOST, address -> false));
+        assertTrue(cache.isSupported(OTHER, address -> true));
+    }
+
+    @Test
+    public void clear_forgetsAllResults() {
+        ProfileSupportCache cache = new ProfileSupportCache();
+        cache.isSupported(HOST, address -> true);
+
+        cache.clear();
+
+        assertFalse(cache.isSupported(HOST, address -> false));
+    }
+}
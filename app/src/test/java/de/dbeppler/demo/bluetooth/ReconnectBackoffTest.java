@@ -0,0 +1,28 @@
+package de.dbeppler.demo.bluetooth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReconnectBackoffTest {
+
+    @Test
+    public void nextDelayMillis_doublesUpToMaximum() {
+        ReconnectBackoff backoff = new ReconnectBackoff(500, 3000, 5);
+        assertEquals(500, backoff.nextDelayMillis());
+        assertEquals(1000, backoff.nextDelayMillis());
+        assertEquals(2000, backoff.nextDelayMillis());
+        assertEquals(3000, backoff.nextDelayMillis());
+        assertEquals(3000, backoff.nextDelayMillis());
+        assertEquals(5, backoff.getAttempts());
+    }
+
+    @Test
+    public void nextDelayMillis_givesUpAfterMaxAttempts() {
+        ReconnectBackoff backoff = new ReconnectBackoff(1, Long.MAX_VALUE, 70);
+        for (int i = 0; i < 70; i++) {
+            assertEquals(i <= 62 ? 1L << i : Long.MAX_VALUE, backoff.nextDelayMillis());
+        }
+        assertEquals(-1, backoff.nextDelayMillis());
+    }
+}
@@ -0,0 +1,81 @@
+package de.dbeppler.demo.bluetooth;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReportPacerTest {
+
+    /** Token rate of the tests: 9 bytes per 10 ms. */
+    private static final long NANOS_PER_TOKEN = TimeUnit.SECONDS.toNanos(1) / 900;
+
+    @Test
+    public void acquire_keepsTokenRate() throws InterruptedException {
+        FakeClock clock = new FakeClock();
+        ReportPacer pacer = new ReportPacer(900, 9, clock);
+        long start = clock.now;
+        for (int i = 0; i < 11; i++) {
+            pacer.acquire(9);
+        }
+        // The first report goes out from the full bucket, the other ten wait 10 ms each.
+        assertEquals(10 * 9 * NANOS_PER_TOKEN, clock.now - start);
+    }
+
+    @Test
+    public void acquire_usesSavedUpTokens() throws InterruptedException {
+        FakeClock clock = new FakeClock();
+        ReportPacer pacer = new ReportPacer(900, 9, clock);
+        long start = clock.now;
+        for (int i = 0; i < 3; i++) {
+            pacer.acquire(3);
+        }
+        assertEquals(start, clock.now);
+    }
+
+    @Test
+    public void acquire_savesUpAtMostBucketWhileIdle() throws InterruptedException {
+        FakeClock clock = new FakeClock();
+        ReportPacer pacer = new ReportPacer(900, 9, clock);
+        pacer.acquire(9);
+        // Idle for much longer than it takes to fill the bucket.
+        clock.now += TimeUnit.SECONDS.toNanos(1);
+        long idle = clock.now;
+
+        pacer.acquire(9);
+        pacer.acquire(9);
+
+        assertEquals(9 * NANOS_PER_TOKEN, clock.now - idle);
+    }
+
+    @Test
+    public void acquire_waitsOnRealClock() throws InterruptedException {
+        ReportPacer pacer = new ReportPacer(900, 9);
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            pacer.acquire(9);
+        }
+        // Only the lower bound holds on a loaded machine.
+        assertTrue(System.nanoTime() - start >= 2 * 9 * NANOS_PER_TOKEN);
+    }
+
+    /**
+     * Clock whose time only moves when the pacer waits or the test advances it.
+     */
+    private static final class FakeClock implements ReportPacer.Clock {
+
+        long now = 1_000_000_000L;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        @Override
+        public void await(long deadline) {
+            now = Math.max(now, deadline);
+        }
+    }
+}
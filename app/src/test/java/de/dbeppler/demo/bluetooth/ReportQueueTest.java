@@ -0,0 +1,131 @@
+package de.dbeppler.demo.bluetooth;
+
+import de.dbeppler.demo.bluetooth.HidDataSender.OverflowPolicy;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReportQueueTest {
+
+    @Test
+    public void take_returnsReportsInOrder() throws InterruptedException {
+        ReportQueue queue = new ReportQueue(2);
+        queue.offer(1, 0, null);
+        queue.offer(2, 0, null);
+        assertEquals(1, queue.take());
+        queue.offer(3, 0, null);
+        assertEquals(2, queue.take());
+        assertEquals(3, queue.take());
+    }
+
+    @Test
+    public void take_providesRequestTime() throws InterruptedException {
+        ReportQueue queue = new ReportQueue(2);
+        queue.offer(1, 100, null);
+        queue.offer(2, 200, null);
+        queue.take();
+        assertEquals(100, queue.getTakenRequestTime());
+        queue.take();
+        assertEquals(200, queue.getTakenRequestTime());
+    }
+
+    @Test
+    public void offerOverLimit_replacesNewestWhenFull() throws InterruptedException {
+        ReportQueue queue = new ReportQueue(2);
+        queue.setLimit(1);
+        queue.setOverflowPolicy(OverflowPolicy.FAIL);
+        queue.offer(1, 0, null);
+        queue.offerOverLimit(2, 0);
+        queue.offerOverLimit(3, 0);
+        assertEquals(1, queue.take());
+        assertEquals(3, queue.take());
+        assertTrue(queue.isEmpty());
+        assertEquals(1, queue.getDroppedReports());
+    }
+
+    @Test
+    public void dropOldest_discardsHead() throws InterruptedException {
+        ReportQueue queue = new ReportQueue(2);
+        queue.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+        queue.offer(1, 0, null);
+        queue.offer(2, 0, null);
+        queue.offer(3, 0, null);
+        assertEquals(2, queue.take());
+        assertEquals(3, queue.take());
+        assertEquals(1, queue.getDroppedReports());
+    }
+
+    @Test
+    public void fail_throwsWhenFull() throws InterruptedException {
+        ReportQueue queue = new ReportQueue(1);
+        queue.setOverflowPolicy(OverflowPolicy.FAIL);
+        queue.offer(1, 0, null);
+        try {
+            queue.offer(2, 0, null);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(1, queue.take());
+        assertEquals(1, queue.getDroppedReports());
+    }
+
+    @Test
+    public void block_returnsFalseWhenInterrupted() {
+        ReportQueue queue = new ReportQueue(1);
+        queue.offer(1, 0, null);
+        Thread.currentThread().interrupt();
+        assertFalse(queue.offer(2, 0, null));
+        assertEquals(1, queue.getDroppedReports());
+        // Clear the interrupt flag again.
+        Thread.interrupted();
+    }
+
+    @Test
+    public void dropOldest_failsBatchOfDroppedReport() throws InterruptedException {
+        ReportQueue queue = new ReportQueue(1);
+        queue.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+        ReportBatch batch = new ReportBatch(1);
+        queue.offer(1, 0, batch);
+        queue.offer(2, 0, null);
+        assertFailed(batch, ReportDeliveryException.Reason.DROPPED);
+    }
+
+    @Test
+    public void clear_cancelsPendingBatches() {
+        ReportQueue queue = new ReportQueue(2);
+        ReportBatch batch = new ReportBatch(2);
+        queue.offer(1, 0, batch);
+        queue.offer(2, 0, batch);
+        queue.clear();
+        assertFailed(batch, ReportDeliveryException.Reason.CANCELLED);
+    }
+
+    @Test
+    public void setLimit_makesQueueFullEarlier() throws InterruptedException {
+        ReportQueue queue = new ReportQueue(4);
+        queue.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+        queue.setLimit(1);
+        queue.offer(1, 0, null);
+        queue.offer(2, 0, null);
+        assertEquals(2, queue.take());
+        assertEquals(1, queue.getDroppedReports());
+    }
+
+    private static void assertFailed(ReportBatch batch, int reason) {
+        assertTrue(batch.isDone());
+        try {
+            batch.get();
+            fail();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        } catch (ExecutionException e) {
+            assertEquals(reason, ((ReportDeliveryException) e.getCause()).getReason());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package de.dbeppler.demo.bluetooth;
+
+import de.dbeppler.demo.bluetooth.KeyboardReport.KeyboardDataSender;
+import de.dbeppler.demo.bluetooth.MouseReport.PointerDataSender;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReportRecorderTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replay_sendsRecordedReports() throws IOException, InterruptedException {
+        File file = folder.newFile();
+        HidDeviceApp app = new HidDeviceApp(Runnable::run);
+        app.setTransport(new LoopbackHidHost.Builder().build());
+        try (ReportRecorder recorder = ReportRecorder.create(file, 4096)) {
+            app.setRecorder(recorder);
+            app.sendKeyboard(2, 4, 5, 0, 0, 0, 0);
+            app.sendReport(Constants.ID_MOUSE, MouseReport.pack(1, -5, 3, 0));
+            app.sendReport(Constants.ID_KEYBOARD_BITMAP,
+                    KeyboardBitmapReport.packLow(0, 1L << 4 | 1L << 63),
+                    KeyboardBitmapReport.packHigh(1L << 63, 1L << 3));
+            app.setRecorder(null);
+            app.sendKeyboard(0, 0, 0, 0, 0, 0, 0);
+            assertEquals(3, recorder.getRecordedReports());
+        }
+
+        RecordingSender sender = new RecordingSender();
+        long replayed =
+                ReportReplayer.open(file).replay(sender, Double.POSITIVE_INFINITY);
+
+        assertEquals(3, replayed);
+        assertEquals(
+                Arrays.asList(
+                        "keyboard 2:[4, 5, 0, 0, 0, 0]",
+                        "pointer 1 -5 3 0",
+                        "bitmap 0 8000000000000010 8"),
+                sender.reports);
+    }
+
+    @Test
+    public void record_dropsReportsWhenFull() throws IOException {
+        HidDeviceApp app = new HidDeviceApp(Runnable::run);
+        app.setTransport(new LoopbackHidHost.Builder().build());
+        // Room for the header and a single keyboard report.
+        try (ReportRecorder recorder = ReportRecorder.create(folder.newFile(), 4 + 18)) {
+            app.setRecorder(recorder);
+            app.sendKeyboard(0, 4, 0, 0, 0, 0, 0);
+            app.sendKeyboard(0, 0, 0, 0, 0, 0, 0);
+
+            assertEquals(1, recorder.getRecordedReports());
+            assertEquals(1, recorder.getDroppedReports());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void open_rejectsOtherFiles() throws IOException {
+        ReportReplayer.open(folder.newFile());
+    }
+
+    private static final class RecordingSender implements KeyboardDataSender, PointerDataSender {
+
+        final List<String> reports = new ArrayList<>();
+
+        @Override
+        public void sendKeyboard(
+                int modifier, int key1, int key2, int key3, int key4, int key5, int key6) {
+            reports.add("keyboard " + modifier + ":"
+                    + Arrays.toString(new int[]{key1, key2, key3, key4, key5, key6}));
+        }
+
+        @Override
+        public void sendKeyboardBitmap(int modifier, long keys, long keysHigh) {
+            reports.add("bitmap " + modifier + " " + Long.toHexString(keys) + " "
+                    + Long.toHexString(keysHigh));
+        }
+
+        @Override
+        public void sendPointer(int buttons, int dx, int dy, int wheel) {
+            reports.add("pointer " + buttons + " " + dx + " " + dy + " " + wheel);
+        }
+    }
+}
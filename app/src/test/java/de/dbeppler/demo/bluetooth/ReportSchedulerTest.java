@@ -0,0 +1,61 @@
+package de.dbeppler.demo.bluetooth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReportSchedulerTest {
+
+    @Test
+    public void take_prefersKeyboardReports() throws InterruptedException {
+        ReportScheduler scheduler = new ReportScheduler(4, 4, 4);
+        scheduler.offerPointer(0, 1, 1, 0);
+        scheduler.getConsumerQueue().offer(ConsumerReport.pack(0xE9), 0, null);
+        scheduler.getKeyboardQueue().offer(42, 0, null);
+
+        assertEquals(Constants.ID_KEYBOARD, scheduler.take());
+        assertEquals(42, scheduler.getTakenReport());
+        assertEquals(Constants.ID_CONSUMER, scheduler.take());
+        assertEquals(Constants.ID_MOUSE, scheduler.take());
+    }
+
+    @Test
+    public void offerPointer_addsUpMovements() throws InterruptedException {
+        ReportScheduler scheduler = new ReportScheduler(4, 4, 4);
+        for (int i = 0; i < 100; i++) {
+            scheduler.offerPointer(0, 1, -1, 0);
+        }
+
+        assertEquals(Constants.ID_MOUSE, scheduler.take());
+        assertEquals(MouseReport.pack(0, 100, -100, 0), scheduler.getTakenReport());
+    }
+
+    @Test
+    public void offerPointer_splitsLargeMovements() throws InterruptedException {
+        ReportScheduler scheduler = new ReportScheduler(4, 4, 4);
+        scheduler.offerPointer(0, 300, 0, 0);
+
+        scheduler.take();
+        assertEquals(MouseReport.pack(0, 127, 0, 0), scheduler.getTakenReport());
+        scheduler.take();
+        assertEquals(MouseReport.pack(0, 127, 0, 0), scheduler.getTakenReport());
+        scheduler.take();
+        assertEquals(MouseReport.pack(0, 46, 0, 0), scheduler.getTakenReport());
+    }
+
+    @Test
+    public void offerPointer_keepsClicks() throws InterruptedException {
+        ReportScheduler scheduler = new ReportScheduler(4, 4, 4);
+        scheduler.offerPointer(0, 5, 0, 0);
+        scheduler.offerPointer(1, 0, 0, 0);
+        scheduler.offerPointer(0, 0, 0, 0);
+        scheduler.offerPointer(0, 5, 0, 0);
+
+        scheduler.take();
+        assertEquals(MouseReport.pack(0, 5, 0, 0), scheduler.getTakenReport());
+        scheduler.take();
+        assertEquals(MouseReport.pack(1, 0, 0, 0), scheduler.getTakenReport());
+        scheduler.take();
+        assertEquals(MouseReport.pack(0, 5, 0, 0), scheduler.getTakenReport());
+    }
+}
@@ -0,0 +1,39 @@
+package de.dbeppler.demo.bluetooth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ResumeFilterTest {
+
+    @Test
+    public void filter_keepsHeldKeyReleasedUntilReportReleasesIt() {
+        ResumeFilter filter = new ResumeFilter();
+        filter.onSent(Constants.ID_KEYBOARD, KeyboardReport.pack(0, 4, 0, 0, 0, 0, 0), 0);
+        filter.onResume();
+
+        // "a" is still held, "b" is new.
+        filter.filter(Constants.ID_KEYBOARD, KeyboardReport.pack(2, 4, 5, 0, 0, 0, 0), 0);
+        assertEquals(KeyboardReport.pack(2, 5, 0, 0, 0, 0, 0), filter.getReport());
+
+        filter.filter(Constants.ID_KEYBOARD, 0, 0);
+        filter.filter(Constants.ID_KEYBOARD, KeyboardReport.pack(0, 4, 0, 0, 0, 0, 0), 0);
+        assertEquals(KeyboardReport.pack(0, 4, 0, 0, 0, 0, 0), filter.getReport());
+    }
+
+    @Test
+    public void filter_keepsHeldButtonReleasedUntilReportReleasesIt() {
+        ResumeFilter filter = new ResumeFilter();
+        filter.onSent(Constants.ID_MOUSE, MouseReport.pack(1, 0, 0, 0), 0);
+        filter.onResume();
+
+        // The primary button is still held, the secondary one is new, the movement is kept.
+        filter.filter(Constants.ID_MOUSE, MouseReport.pack(3, 5, -5, 0), 0);
+        assertEquals(MouseReport.pack(2, 5, -5, 0), filter.getReport());
+
+        filter.filter(Constants.ID_MOUSE, MouseReport.pack(0, 1, 0, 0), 0);
+        assertEquals(MouseReport.pack(0, 1, 0, 0), filter.getReport());
+        filter.filter(Constants.ID_MOUSE, MouseReport.pack(1, 0, 0, 0), 0);
+        assertEquals(MouseReport.pack(1, 0, 0, 0), filter.getReport());
+    }
+}
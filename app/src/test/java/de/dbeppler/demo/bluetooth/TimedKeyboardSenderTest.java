@@ -0,0 +1,71 @@
+package de.dbeppler.demo.bluetooth;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimedKeyboardSenderTest {
+
+    @Test
+    public void sendKeyboardAt_waitsForDeadlinesAndRecordsJitter() throws InterruptedException {
+        List<Long> sendTimes = new ArrayList<>();
+        TimedKeyboardSender sender = new TimedKeyboardSender(
+                (modifier, key1, key2, key3, key4, key5, key6) -> sendTimes.add(System.nanoTime()));
+        long gap = TimeUnit.MILLISECONDS.toNanos(2);
+        long start = System.nanoTime() + gap;
+
+        for (int i = 0; i < 5; i++) {
+            sender.sendKeyboardAt(start + i * gap, 0, 4, 0, 0, 0, 0, 0);
+        }
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(sendTimes.get(i) - (start + i * gap) >= 0);
+        }
+        assertEquals(5, sender.getJitter().getCount());
+        sender.resetJitter();
+        assertEquals(0, sender.getJitter().getCount());
+    }
+
+    @Test
+    public void sendKeyboardAt_sendsPassedDeadlinesRightAway() throws InterruptedException {
+        List<Long> sendTimes = new ArrayList<>();
+        TimedKeyboardSender sender = new TimedKeyboardSender(
+                (modifier, key1, key2, key3, key4, key5, key6) -> sendTimes.add(System.nanoTime()));
+
+        sender.sendKeyboardAt(System.nanoTime() - TimeUnit.SECONDS.toNanos(1), 0, 0, 0, 0, 0, 0, 0);
+
+        assertEquals(1, sendTimes.size());
+        assertTrue(sender.getJitter().getMax() >= TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void sendKeyboardAt_holdsQueuedReportsBackUntilDeadlines() throws Exception {
+        List<Long> receiveTimes = new CopyOnWriteArrayList<>();
+        LoopbackHidHost host = new LoopbackHidHost.Builder()
+                .setReportListener((id, data) -> receiveTimes.add(System.nanoTime()))
+                .build();
+        HidDataSender hidDataSender = HidDataSender.createForTransport(host);
+        hidDataSender.setPacingEnabled(false);
+        TimedKeyboardSender sender = new TimedKeyboardSender(hidDataSender);
+        long gap = TimeUnit.MILLISECONDS.toNanos(2);
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(20);
+
+        for (int i = 0; i < 5; i++) {
+            sender.sendKeyboardAt(start + i * gap, 0, i % 2 == 0 ? 4 : 0, 0, 0, 0, 0, 0);
+        }
+        // Keyboard reports are sent in order, so all of them arrived once this one did.
+        hidDataSender.submitKeyboard(0, 0, 0, 0, 0, 0, 0).get(5, TimeUnit.SECONDS);
+
+        assertEquals(6, receiveTimes.size());
+        for (int i = 0; i < 5; i++) {
+            assertTrue(receiveTimes.get(i) - (start + i * gap) >= 0);
+        }
+        assertEquals(5, sender.getJitter().getCount());
+    }
+}
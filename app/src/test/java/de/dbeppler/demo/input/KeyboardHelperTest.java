@@ -0,0 +1,170 @@
+package de.dbeppler.demo.input;
+
+import de.dbeppler.demo.bluetooth.KeyboardReport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class KeyboardHelperTest {
+
+    private final List<String> reports = new ArrayList<>();
+    private final KeyboardHelper keyboardHelper =
+            new KeyboardHelper((modifier, key1, key2, key3, key4, key5, key6) ->
+                    reports.add(modifier + ":" + Arrays.toString(
+                            new int[]{key1, key2, key3, key4, key5, key6})));
+
+    @Test
+    public void sendChar_sendsPressAndRelease() {
+        keyboardHelper.sendChar('A');
+        assertEquals(
+                Arrays.asList("2:[4, 0, 0, 0, 0, 0]", "0:[0, 0, 0, 0, 0, 0]"),
+                reports);
+    }
+
+    @Test
+    public void sendString_typesDeadKeysAlone() {
+        keyboardHelper.setLayout(KeyboardLayout.GERMAN);
+        keyboardHelper.sendString("@\u00E9");
+        assertEquals(
+                Arrays.asList(
+                        "64:[20, 0, 0, 0, 0, 0]", // AltGr + Q
+                        "0:[0, 0, 0, 0, 0, 0]",
+                        "0:[46, 0, 0, 0, 0, 0]", // dead acute
+                        "0:[0, 0, 0, 0, 0, 0]",
+                        "0:[8, 0, 0, 0, 0, 0]", // e
+                        "0:[0, 0, 0, 0, 0, 0]"),
+                reports);
+    }
+
+    @Test
+    public void sendString_releasesOnlyOnRepeatedKeys() {
+        keyboardHelper.sendString("TestMessage");
+        assertEquals(
+                Arrays.asList(
+                        "2:[23, 0, 0, 0, 0, 0]", // T
+                        "0:[23, 8, 0, 0, 0, 0]", // e
+                        "0:[23, 8, 22, 0, 0, 0]", // s
+                        "0:[0, 0, 0, 0, 0, 0]",
+                        "0:[23, 0, 0, 0, 0, 0]", // t
+                        "2:[23, 16, 0, 0, 0, 0]", // M
+                        "0:[23, 16, 8, 0, 0, 0]", // e
+                        "0:[23, 16, 8, 22, 0, 0]", // s
+                        "0:[0, 0, 0, 0, 0, 0]",
+                        "0:[22, 0, 0, 0, 0, 0]", // s
+                        "0:[22, 4, 0, 0, 0, 0]", // a
+                        "0:[22, 4, 10, 0, 0, 0]", // g
+                        "0:[22, 4, 10, 8, 0, 0]", // e
+                        "0:[0, 0, 0, 0, 0, 0]"),
+                reports);
+    }
+
+    @Test
+    public void sendString_releasesWhenAllSlotsAreUsed() {
+        keyboardHelper.sendString("abcdefg");
+        assertEquals(9, reports.size());
+        assertEquals("0:[4, 5, 6, 7, 8, 9]", reports.get(5));
+        assertEquals("0:[0, 0, 0, 0, 0, 0]", reports.get(6));
+        assertEquals("0:[10, 0, 0, 0, 0, 0]", reports.get(7));
+    }
+
+    @Test
+    public void sendText_resumesAtOffset() throws IOException {
+        keyboardHelper.sendString("Message");
+        List<String> expected = new ArrayList<>(reports);
+        reports.clear();
+
+        TypingJob job = new TypingJob(4);
+        assertTrue(keyboardHelper.sendText(
+                new ByteArrayInputStream("TestMessage".getBytes(StandardCharsets.UTF_8)),
+                StandardCharsets.UTF_8, job));
+
+        assertEquals(expected, reports);
+        assertEquals(11, job.getOffset());
+    }
+
+    @Test
+    public void sendText_stopsWhenCancelled() throws IOException {
+        TypingJob job = new TypingJob();
+        KeyboardHelper cancellingHelper =
+                new KeyboardHelper((modifier, key1, key2, key3, key4, key5, key6) -> job.cancel());
+
+        assertFalse(cancellingHelper.sendText(new StringReader("TestMessage"), job));
+        assertEquals(1, job.getOffset());
+    }
+
+    @Test
+    public void sendCompiled_matchesSendString() {
+        keyboardHelper.sendString("Hello, World!");
+        List<String> expected = new ArrayList<>(reports);
+        reports.clear();
+
+        CompiledText compiled = keyboardHelper.compile("Hello, World!");
+        keyboardHelper.sendCompiled(compiled);
+
+        assertEquals(expected, reports);
+        assertEquals(expected.size(), compiled.getReportCount());
+        assertSame(compiled, keyboardHelper.compile(new StringBuilder("Hello, World!")));
+    }
+
+    @Test
+    public void sendString_pressesAscendingKeysTogetherInBitmapReports() {
+        String text = "The quick brown fox jumps over the lazy dog, then naps in the sun.";
+        List<long[]> bitmapReports = new ArrayList<>();
+        new KeyboardHelper(new KeyboardReport.KeyboardDataSender() {
+            @Override
+            public void sendKeyboard(
+                    int modifier, int key1, int key2, int key3, int key4, int key5, int key6) {
+                throw new AssertionError("boot report");
+            }
+
+            @Override
+            public boolean isKeyboardBitmapSupported() {
+                return true;
+            }
+
+            @Override
+            public void sendKeyboardBitmap(int modifier, long keys, long keysHigh) {
+                bitmapReports.add(new long[]{modifier, keys, keysHigh});
+            }
+        }).sendString(text);
+        keyboardHelper.sendString(text);
+
+        // Boot reports need more than one report per character, bitmap reports below two thirds.
+        assertTrue(reports.size() > text.length());
+        assertTrue(bitmapReports.size() * 3 < text.length() * 2);
+
+        // The host types the new keys of a report in scan code order.
+        char[] characters = new char[1 << 16];
+        for (char c = ' '; c <= '~'; c++) {
+            characters[KeyboardLayout.US.lookup(c) & 0xFFFF] = c;
+        }
+        StringBuilder typed = new StringBuilder();
+        long previous = 0;
+        long previousHigh = 0;
+        for (long[] report : bitmapReports) {
+            long pressed = report[1] & ~previous;
+            long pressedHigh = report[2] & ~previousHigh;
+            for (int key = 0; key < 2 * Long.SIZE; key++) {
+                long bits = key < Long.SIZE ? pressed : pressedHigh;
+                if ((bits & 1L << key) != 0) {
+                    typed.append(characters[(int) report[0] << 8 | key]);
+                }
+            }
+            previous = report[1];
+            previousHigh = report[2];
+        }
+        assertEquals(text, typed.toString());
+    }
+}
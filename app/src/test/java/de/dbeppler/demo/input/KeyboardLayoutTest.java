@@ -0,0 +1,49 @@
+package de.dbeppler.demo.input;
+
+import de.dbeppler.demo.input.KeyboardHelper.Modifier;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class KeyboardLayoutTest {
+
+    @Test
+    public void read_returnsWrittenLayout() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        KeyboardLayout.GERMAN.write(out);
+        KeyboardLayout layout = KeyboardLayout.read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals("de", layout.getName());
+        for (char key = 0; key < Character.MAX_VALUE; key++) {
+            assertEquals(KeyboardLayout.GERMAN.lookup(key), layout.lookup(key));
+        }
+    }
+
+    @Test
+    public void lookup_packsDeadKeyInHighBits() {
+        KeyboardLayout layout = new KeyboardLayout.Builder("test")
+                .putDead('\u00C2', Modifier.NONE, 0x35, Modifier.LEFT_SHIFT, 0x04)
+                .build();
+
+        assertEquals(0x35_02_04, layout.lookup('\u00C2'));
+        assertEquals(0, layout.lookup('\u20AC'));
+    }
+
+    @Test
+    public void lookup_typesLineBreaksAndTabs() {
+        for (KeyboardLayout layout : new KeyboardLayout[]{KeyboardLayout.US, KeyboardLayout.GERMAN}) {
+            assertEquals(KeyboardHelper.Key.ENTER, layout.lookup('\n'));
+            assertEquals(KeyboardHelper.Key.TAB, layout.lookup('\t'));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsOtherData() throws IOException {
+        KeyboardLayout.read(new ByteArrayInputStream(new byte[]{1, 2, 3, 4}));
+    }
+}
@@ -0,0 +1,93 @@
+package de.dbeppler.demo.input;
+
+import de.dbeppler.demo.bluetooth.KeyboardReport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class KeyboardReportDecoderTest {
+
+    @Test
+    public void decode_roundTripsRandomText() {
+        for (KeyboardLayout layout : new KeyboardLayout[]{KeyboardLayout.US, KeyboardLayout.GERMAN}) {
+            String text = randomText(layout, 10_000);
+            byte[] reports = type(layout, text);
+
+            StringBuilder decoded = new StringBuilder();
+            new KeyboardReportDecoder(layout).decode(
+                    reports, 0, reports.length / KeyboardReport.REPORT_LENGTH, decoded);
+
+            assertEquals(layout.getName(), text, decoded.toString());
+        }
+    }
+
+    @Test
+    public void verify_findsFirstDivergence() {
+        byte[] reports = type(KeyboardLayout.US, "Test");
+        KeyboardReportDecoder decoder = new KeyboardReportDecoder(KeyboardLayout.US);
+        int count = reports.length / KeyboardReport.REPORT_LENGTH;
+
+        assertNull(decoder.verify(reports, 0, count, "Test"));
+
+        KeyboardReportDecoder.Mismatch mismatch = decoder.verify(reports, 0, count, "Tent");
+        assertEquals(2, mismatch.textOffset);
+        assertEquals(2, mismatch.reportIndex);
+
+        mismatch = decoder.verify(reports, 0, count, "Tests");
+        assertEquals(4, mismatch.textOffset);
+        assertEquals(count, mismatch.reportIndex);
+    }
+
+    @Test
+    public void decode_ignoresRollOverErrors() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeReport(out, 0, 4, 0, 0, 0, 0, 0);
+        writeReport(out, 0, 1, 1, 1, 1, 1, 1);
+        writeReport(out, 0, 4, 5, 0, 0, 0, 0);
+        byte[] reports = out.toByteArray();
+
+        StringBuilder decoded = new StringBuilder();
+        new KeyboardReportDecoder(KeyboardLayout.US).decode(reports, 0, 3, decoded);
+
+        assertEquals("ab", decoded.toString());
+    }
+
+    private static String randomText(KeyboardLayout layout, int length) {
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            char c = (char) random.nextInt(0x100);
+            if (layout.lookup(c) != 0) {
+                text.append(c);
+            }
+        }
+        return text.toString();
+    }
+
+    private static byte[] type(KeyboardLayout layout, String text) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        KeyboardHelper keyboardHelper = new KeyboardHelper(
+                (modifier, key1, key2, key3, key4, key5, key6) ->
+                        writeReport(out, modifier, key1, key2, key3, key4, key5, key6));
+        keyboardHelper.setLayout(layout);
+        keyboardHelper.sendString(text);
+        return out.toByteArray();
+    }
+
+    private static void writeReport(ByteArrayOutputStream out, int modifier,
+            int key1, int key2, int key3, int key4, int key5, int key6) {
+        out.write(modifier);
+        out.write(0);
+        out.write(key1);
+        out.write(key2);
+        out.write(key3);
+        out.write(key4);
+        out.write(key5);
+        out.write(key6);
+    }
+}
@@ -0,0 +1,87 @@
+package de.dbeppler.demo.input;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class MacroTest {
+
+    private final List<String> reports = new ArrayList<>();
+    private final MacroPlayer player =
+            new MacroPlayer((modifier, key1, key2, key3, key4, key5, key6) ->
+                    reports.add(modifier + ":" + Arrays.toString(
+                            new int[]{key1, key2, key3, key4, key5, key6})));
+
+    @Test
+    public void play_sendsCombinationsTextAndRepeats() throws InterruptedException {
+        Macro macro = Macro.compile(
+                "REM open the run dialog\n"
+                        + "GUI r\n"
+                        + "DELAY 1\n"
+                        + "STRING ab\n"
+                        + "REPEAT 2\n"
+                        + "CTRL ALT DELETE",
+                KeyboardLayout.US);
+
+        player.play(macro);
+
+        assertEquals(
+                Arrays.asList(
+                        "8:[21, 0, 0, 0, 0, 0]",
+                        "0:[0, 0, 0, 0, 0, 0]",
+                        "0:[4, 0, 0, 0, 0, 0]",
+                        "0:[4, 5, 0, 0, 0, 0]",
+                        "0:[0, 0, 0, 0, 0, 0]",
+                        "0:[4, 0, 0, 0, 0, 0]",
+                        "0:[4, 5, 0, 0, 0, 0]",
+                        "0:[0, 0, 0, 0, 0, 0]",
+                        "0:[4, 0, 0, 0, 0, 0]",
+                        "0:[4, 5, 0, 0, 0, 0]",
+                        "0:[0, 0, 0, 0, 0, 0]",
+                        "5:[76, 0, 0, 0, 0, 0]",
+                        "0:[0, 0, 0, 0, 0, 0]"),
+                reports);
+        // Two reports per combination, three for the text, a delay and a repeat.
+        assertEquals(9, macro.getInstructionCount());
+    }
+
+    @Test
+    public void play_resetsRepeatCounters() throws InterruptedException {
+        Macro macro = Macro.compile("ENTER\nREPEAT 1", KeyboardLayout.US);
+
+        player.play(macro);
+        player.play(macro);
+
+        assertEquals(8, reports.size());
+    }
+
+    @Test
+    public void play_stopsWhenInterruptedWithoutDelays() {
+        Macro macro = Macro.compile("ENTER\nREPEAT 1000", KeyboardLayout.US);
+        MacroPlayer interruptingPlayer =
+                new MacroPlayer((modifier, key1, key2, key3, key4, key5, key6) -> {
+                    reports.add(modifier + ":" + key1);
+                    if (reports.size() == 3) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+
+        try {
+            interruptingPlayer.play(macro);
+            fail();
+        } catch (InterruptedException e) {
+            // All keys are released right after the report that was sent when interrupted.
+            assertEquals(Arrays.asList("0:40", "0:0", "0:40", "0:0"), reports);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compile_rejectsUnknownKeys() {
+        Macro.compile("CTRL NOPE", KeyboardLayout.US);
+    }
+}
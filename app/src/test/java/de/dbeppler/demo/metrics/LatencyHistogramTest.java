@@ -0,0 +1,59 @@
+package de.dbeppler.demo.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentiles_areWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 10_000; i++) {
+            histogram.record(i * 1_000);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10_000, snapshot.getCount());
+        assertEquals(10_000_000, snapshot.getMax());
+        assertWithin(5_000_000, snapshot.getP50());
+        assertWithin(9_900_000, snapshot.getP99());
+        assertWithin(9_990_000, snapshot.getP999());
+    }
+
+    @Test
+    public void smallValues_areExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 16; i++) {
+            histogram.record(i);
+        }
+        assertEquals(7, histogram.snapshot().getP50());
+        assertEquals(15, histogram.snapshot().getPercentile(100));
+    }
+
+    @Test
+    public void merge_addsCounts() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        first.record(100);
+        second.record(1_000_000);
+        LatencyHistogram.Snapshot merged = first.snapshot().merge(second.snapshot());
+        assertEquals(2, merged.getCount());
+        assertEquals(1_000_000, merged.getMax());
+        assertWithin(100, merged.getPercentile(50));
+    }
+
+    @Test
+    public void snapshotAndReset_startsFromZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(42);
+        assertEquals(1, histogram.snapshotAndReset().getCount());
+        assertEquals(0, histogram.snapshot().getCount());
+        assertEquals(0, histogram.snapshot().getMax());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " not within 6.25% of " + expected,
+                actual >= expected && actual <= expected + expected / 16);
+    }
+}
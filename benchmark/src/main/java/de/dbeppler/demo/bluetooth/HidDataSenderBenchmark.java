@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.bluetooth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link HidDataSender#sendKeyboard} up to the transport, with a host that accepts every
+ * report instantly and without QoS pacing. Includes waiting for the writer thread whenever the
+ * report queue is full.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HidDataSenderBenchmark {
+
+    private HidDataSender hidDataSender;
+
+    private int key = 0x04;
+
+    @Setup
+    public void setUp() {
+        hidDataSender = HidDataSender.createForTransport(new LoopbackHidHost.Builder().build());
+        hidDataSender.setPacingEnabled(false);
+    }
+
+    @Benchmark
+    public void sendKeyboard() {
+        key = key == 0x38 ? 0x04 : key + 1;
+        hidDataSender.sendKeyboard(0, key, 0, 0, 0, 0, 0);
+    }
+}
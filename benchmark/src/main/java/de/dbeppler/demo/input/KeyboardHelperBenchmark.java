@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.input;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of translating characters and strings into keyboard reports, with a sender that only
+ * consumes the reports.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KeyboardHelperBenchmark {
+
+    private static final String TEXT = "The quick brown fox jumps over the lazy dog. 0123456789!";
+
+    private KeyboardHelper keyboardHelper;
+
+    private int index;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        keyboardHelper = new KeyboardHelper((modifier, key1, key2, key3, key4, key5, key6) ->
+                blackhole.consume(modifier ^ key1 ^ key2 ^ key3 ^ key4 ^ key5 ^ key6));
+    }
+
+    @Benchmark
+    public void sendChar() {
+        index = index == TEXT.length() - 1 ? 0 : index + 1;
+        keyboardHelper.sendChar(TEXT.charAt(index));
+    }
+
+    @Benchmark
+    public void sendString() {
+        keyboardHelper.sendString(TEXT);
+    }
+
+    @Benchmark
+    public CompiledText compileUncached() {
+        return CompiledText.compile(TEXT, KeyboardLayout.US);
+    }
+
+    @Benchmark
+    public void sendCompiled() {
+        keyboardHelper.sendCompiled(keyboardHelper.compile(TEXT));
+    }
+}
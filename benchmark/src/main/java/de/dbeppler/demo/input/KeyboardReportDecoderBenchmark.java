@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.input;
+
+import de.dbeppler.demo.bluetooth.KeyboardReport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of verifying keyboard reports with {@link KeyboardReportDecoder}, per report.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KeyboardReportDecoderBenchmark {
+
+    private static final int REPORTS = 16 * 1024;
+
+    private final KeyboardReportDecoder decoder = new KeyboardReportDecoder(KeyboardLayout.US);
+
+    private String text;
+    private byte[] reports;
+
+    @Setup
+    public void setUp() {
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < REPORTS) {
+            builder.append("The quick brown fox jumps over the lazy dog. 0123456789!");
+        }
+        text = builder.toString();
+        byte[] buffer = new byte[4 * REPORTS * KeyboardReport.REPORT_LENGTH];
+        int[] count = new int[1];
+        new KeyboardHelper((modifier, key1, key2, key3, key4, key5, key6) -> {
+            int start = count[0]++ * KeyboardReport.REPORT_LENGTH;
+            buffer[start] = (byte) modifier;
+            buffer[start + 2] = (byte) key1;
+            buffer[start + 3] = (byte) key2;
+            buffer[start + 4] = (byte) key3;
+            buffer[start + 5] = (byte) key4;
+            buffer[start + 6] = (byte) key5;
+            buffer[start + 7] = (byte) key6;
+        }).sendString(text);
+        // Decode a fixed number of reports, so the result is the time per report.
+        reports = Arrays.copyOf(buffer, REPORTS * KeyboardReport.REPORT_LENGTH);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REPORTS)
+    public Object verify() {
+        return decoder.verify(reports, 0, REPORTS, text);
+    }
+}
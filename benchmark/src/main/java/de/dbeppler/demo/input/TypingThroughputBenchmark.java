@@ -0,0 +1,278 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.dbeppler.demo.input;
+
+import de.dbeppler.demo.bluetooth.HidDataSender;
+import de.dbeppler.demo.bluetooth.HidDataSender.LatencyStage;
+import de.dbeppler.demo.bluetooth.LoopbackHidHost;
+import de.dbeppler.demo.metrics.LatencyHistogram;
+
+import com.google.common.io.CharStreams;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * End-to-end typing throughput: text corpora are typed with {@link KeyboardHelper} through
+ * {@link HidDataSender} into a {@link LoopbackHidHost}, for every typing strategy. Unlike the JMH
+ * benchmarks, this includes the writer thread, pacing and the simulated link, so it shows how fast
+ * text actually reaches the host.
+ *
+ * <p>Results are printed and written to {@code throughput.csv} and {@code throughput.json}.
+ *
+ * <p>Usage: {@code ./gradlew :benchmark:typingThroughput [-Pthroughput.args="<options>"]} with
+ * the options
+ * <ul>
+ * <li>{@code --output <dir>}: directory for the result files, default {@code build/reports}.</li>
+ * <li>{@code --latency-us <n>}: time the simulated host takes for every report, default 0.</li>
+ * <li>{@code --pacing}: hold reports back to the negotiated QoS, off by default.</li>
+ * <li>{@code --warmup <n>} and {@code --iterations <n>}: runs per configuration, default 2 and 5.
+ * </li>
+ * </ul>
+ */
+public final class TypingThroughputBenchmark {
+
+    private static final String[] CORPORA = {"prose", "source", "passwords", "symbols"};
+
+    /** Ways to hand text to the {@link KeyboardHelper}. */
+    private enum Strategy {
+        /** Press and release report for every character. */
+        CHAR,
+        /** Key rollover with boot keyboard reports. */
+        STRING,
+        /** Key rollover with N-key rollover reports. */
+        BITMAP,
+        /** Reports that were translated once and are sent in one batch. */
+        COMPILED
+    }
+
+    private static final class Result {
+        final String corpus;
+        final Strategy strategy;
+        final long chars;
+        final long reports;
+        final long nanos;
+        final LatencyHistogram.Snapshot latency;
+
+        Result(String corpus, Strategy strategy, long chars, long reports, long nanos,
+                LatencyHistogram.Snapshot latency) {
+            this.corpus = corpus;
+            this.strategy = strategy;
+            this.chars = chars;
+            this.reports = reports;
+            this.nanos = nanos;
+            this.latency = latency;
+        }
+
+        double charsPerSecond() {
+            return chars * 1e9 / nanos;
+        }
+
+        double reportsPerSecond() {
+            return reports * 1e9 / nanos;
+        }
+
+        double reportsPerChar() {
+            return (double) reports / chars;
+        }
+    }
+
+    private File output = new File("build/reports");
+    private long latencyMicros;
+    private boolean pacing;
+    private int warmup = 2;
+    private int iterations = 5;
+
+    private TypingThroughputBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        TypingThroughputBenchmark benchmark = new TypingThroughputBenchmark();
+        benchmark.parseArguments(args);
+        benchmark.run();
+    }
+
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--output":
+                    output = new File(args[++i]);
+                    break;
+                case "--latency-us":
+                    latencyMicros = Long.parseLong(args[++i]);
+                    break;
+                case "--pacing":
+                    pacing = true;
+                    break;
+                case "--warmup":
+                    warmup = Integer.parseInt(args[++i]);
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        checkArgument(warmup >= 0 && iterations > 0, "invalid number of runs");
+    }
+
+    private void run() throws Exception {
+        List<Result> results = new ArrayList<>();
+        for (String corpus : CORPORA) {
+            String text = readCorpus(corpus);
+            for (Strategy strategy : Strategy.values()) {
+                LoopbackHidHost host = new LoopbackHidHost.Builder()
+                        .setLatency(latencyMicros, TimeUnit.MICROSECONDS)
+                        .build();
+                HidDataSender hidDataSender = HidDataSender.createForTransport(host);
+                hidDataSender.setPacingEnabled(pacing);
+                hidDataSender.setKeyboardBitmapEnabled(strategy == Strategy.BITMAP);
+                KeyboardHelper keyboardHelper = new KeyboardHelper(hidDataSender);
+
+                for (int i = 0; i < warmup; i++) {
+                    measure(host, hidDataSender, keyboardHelper, corpus, text, strategy);
+                }
+                Result total = null;
+                for (int i = 0; i < iterations; i++) {
+                    Result result =
+                            measure(host, hidDataSender, keyboardHelper, corpus, text, strategy);
+                    total = total == null ? result : new Result(corpus, strategy,
+                            total.chars + result.chars,
+                            total.reports + result.reports,
+                            total.nanos + result.nanos,
+                            total.latency.merge(result.latency));
+                }
+                results.add(total);
+                System.out.println(toCsv(total));
+            }
+        }
+
+        if (!output.isDirectory() && !output.mkdirs()) {
+            throw new IOException("Can't create " + output);
+        }
+        try (PrintWriter csv = new PrintWriter(new File(output, "throughput.csv"), "UTF-8")) {
+            csv.println("corpus,strategy,chars,reports,seconds,chars_per_sec,reports_per_sec,"
+                    + "reports_per_char,latency_p50_us,latency_p99_us,latency_p999_us,"
+                    + "latency_max_us");
+            for (Result result : results) {
+                csv.println(toCsv(result));
+            }
+        }
+        try (PrintWriter json = new PrintWriter(new File(output, "throughput.json"), "UTF-8")) {
+            json.println("{\"latencyMicros\": " + latencyMicros + ", \"pacing\": " + pacing
+                    + ", \"results\": [");
+            for (int i = 0; i < results.size(); i++) {
+                json.print(toJson(results.get(i)));
+                json.println(i < results.size() - 1 ? "," : "");
+            }
+            json.println("]}");
+        }
+        System.out.println("Results written to " + output.getAbsolutePath());
+    }
+
+    /**
+     * Type the text once and wait until the last report arrived at the host.
+     */
+    private static Result measure(LoopbackHidHost host, HidDataSender hidDataSender,
+            KeyboardHelper keyboardHelper, String corpus, String text, Strategy strategy)
+            throws InterruptedException, ExecutionException {
+        CompiledText compiled = keyboardHelper.compile(text);
+        hidDataSender.resetLatencies();
+        long receivedBefore = host.getReceivedReports();
+
+        long start = System.nanoTime();
+        switch (strategy) {
+            case CHAR:
+                for (int i = 0; i < text.length(); i++) {
+                    keyboardHelper.sendChar(text.charAt(i));
+                }
+                break;
+            case STRING:
+            case BITMAP:
+                keyboardHelper.sendString(text);
+                break;
+            case COMPILED:
+                keyboardHelper.sendCompiled(compiled);
+                break;
+        }
+        // Keyboard reports are sent in order, so all of them arrived once this one did.
+        hidDataSender.submitKeyboard(0, 0, 0, 0, 0, 0, 0).get();
+        long nanos = System.nanoTime() - start;
+
+        long reports = host.getReceivedReports() - receivedBefore - 1;
+        return new Result(corpus, strategy, text.length(), reports, nanos,
+                hidDataSender.getLatency(LatencyStage.END_TO_END));
+    }
+
+    private static String readCorpus(String name) throws IOException {
+        try (InputStream in = TypingThroughputBenchmark.class.getResourceAsStream(
+                "/corpora/" + name + ".txt")) {
+            if (in == null) {
+                throw new IOException("Missing corpus " + name);
+            }
+            return CharStreams.toString(new InputStreamReader(in, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String toCsv(Result result) {
+        return String.format(Locale.US, "%s,%s,%d,%d,%.3f,%.0f,%.0f,%.3f,%.1f,%.1f,%.1f,%.1f",
+                result.corpus,
+                result.strategy.name().toLowerCase(Locale.US),
+                result.chars,
+                result.reports,
+                result.nanos / 1e9,
+                result.charsPerSecond(),
+                result.reportsPerSecond(),
+                result.reportsPerChar(),
+                result.latency.getP50() / 1e3,
+                result.latency.getP99() / 1e3,
+                result.latency.getP999() / 1e3,
+                result.latency.getMax() / 1e3);
+    }
+
+    private static String toJson(Result result) {
+        return String.format(Locale.US, "  {\"corpus\": \"%s\", \"strategy\": \"%s\", "
+                        + "\"chars\": %d, \"reports\": %d, \"seconds\": %.6f, "
+                        + "\"charsPerSec\": %.1f, \"reportsPerSec\": %.1f, "
+                        + "\"reportsPerChar\": %.4f, \"latencyMicros\": {\"p50\": %.1f, "
+                        + "\"p99\": %.1f, \"p999\": %.1f, \"max\": %.1f}}",
+                result.corpus,
+                result.strategy.name().toLowerCase(Locale.US),
+                result.chars,
+                result.reports,
+                result.nanos / 1e9,
+                result.charsPerSecond(),
+                result.reportsPerSecond(),
+                result.reportsPerChar(),
+                result.latency.getP50() / 1e3,
+                result.latency.getP99() / 1e3,
+                result.latency.getP999() / 1e3,
+                result.latency.getMax() / 1e3);
+    }
+}